@@ -0,0 +1,105 @@
+package ru.jefremov.prog.server;
+
+import ru.jefremov.prog.common.Printer;
+import ru.jefremov.prog.common.models.*;
+import ru.jefremov.prog.server.managers.ServerAdministrator;
+import ru.jefremov.prog.server.managers.Storage;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Нагрузочная проверка хранилища: несколько потоков читают коллекцию, пока другие её изменяют.
+ * Аргументы: число читающих потоков, число изменяющих потоков, длительность в секундах, начальный размер коллекции.
+ */
+public class StorageBenchmark {
+    private static final String[] NAMES = {"Concert", "Match", "Premiere", "Exhibition", "Festival"};
+    private static final String[] COMMENTS = {"front row", "balcony", "backstage pass", "standing", "family pack"};
+
+    public static void main(String[] args) throws InterruptedException {
+        int readers = argument(args, 0, 4);
+        int writers = argument(args, 1, 1);
+        int seconds = Math.max(1, argument(args, 2, 5));
+        int size = argument(args, 3, 100_000);
+
+        Storage storage = new ServerAdministrator("benchmark").storage;
+        AtomicIntegerArray ids = new AtomicIntegerArray(size);
+        for (int i = 0; i < size; i++) {
+            Ticket ticket = randomTicket();
+            storage.addTicket(ticket);
+            ids.set(i, ticket.getId());
+        }
+        Event lowest = new Event(NAMES[0], 5L, EventType.values()[0]);
+
+        AtomicLong reads = new AtomicLong();
+        AtomicLong writes = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        Thread[] threads = new Thread[readers + writers];
+        for (int i = 0; i < threads.length; i++) {
+            boolean reader = i < readers;
+            threads[i] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long count = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (System.nanoTime() < deadline) {
+                    int slot = random.nextInt(ids.length());
+                    int id = ids.get(slot);
+                    if (reader) {
+                        switch (random.nextInt(4)) {
+                            case 0 -> storage.hasId(id);
+                            case 1 -> storage.size();
+                            case 2 -> storage.printFilterStartsWithComment(COMMENTS[random.nextInt(COMMENTS.length)] + " " + random.nextInt(100));
+                            default -> storage.printFilterLessThanEvent(lowest);
+                        }
+                    } else if (random.nextBoolean()) {
+                        storage.updateById(id, randomTicket());
+                    } else if (storage.removeById(id)) {
+                        Ticket ticket = randomTicket();
+                        storage.addTicket(ticket);
+                        ids.compareAndSet(slot, id, ticket.getId());
+                    }
+                    count++;
+                }
+                (reader ? reads : writes).addAndGet(count);
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Printer.println(readers + " readers, " + writers + " writers, " + size + " tickets, " + seconds + " s");
+        Printer.println("Reads: " + reads.get() / seconds + " ops/s, writes: " + writes.get() / seconds + " ops/s, final size " + storage.size());
+    }
+
+    private static Ticket randomTicket() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new Ticket(NAMES[random.nextInt(NAMES.length)], new Coordinates(random.nextInt(100), random.nextDouble(100)),
+                10.0 + random.nextInt(1000), 1 + random.nextInt(99), COMMENTS[random.nextInt(COMMENTS.length)] + " " + random.nextInt(100),
+                TicketType.values()[random.nextInt(TicketType.values().length)], randomEvent());
+    }
+
+    private static Event randomEvent() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new Event(NAMES[random.nextInt(NAMES.length)], 1L + random.nextInt(500),
+                EventType.values()[random.nextInt(EventType.values().length)]);
+    }
+
+    private static int argument(String[] args, int index, int defaultValue) {
+        if (args.length <= index) return defaultValue;
+        try {
+            int value = Integer.parseInt(args[index]);
+            if (value >= 0) return value;
+        } catch (NumberFormatException ignored) {
+        }
+        Printer.println("Incorrect argument " + args[index] + ", using " + defaultValue);
+        return defaultValue;
+    }
+}
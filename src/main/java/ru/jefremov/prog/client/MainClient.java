@@ -55,7 +55,7 @@ public class MainClient {
                 }
 
             } catch (QuitInterruptionException ignored) {
-
+                flush(commandManager);
             }
             String line = modeManager.next();
             if (line==null || line.isBlank()) {
@@ -69,6 +69,7 @@ public class MainClient {
                 Printer.print("> ");
             } catch (CommandInterruptionException e) {
                 Printer.println(e.getMessage());
+                flush(commandManager);
                 running = modeManager.interrupt();
                 Printer.print("> ");
             } catch (CommandLaunchException e) {
@@ -84,7 +85,20 @@ public class MainClient {
             }
         }
 
+        flush(commandManager);
         Printer.println(exitMessage);
         client.stop();
     }
+
+    /**
+     * Разбирает ответы на запросы, отправленные из скрипта
+     * @param commandManager менеджер команд
+     */
+    private static void flush(ClientCommandManager commandManager) {
+        try {
+            commandManager.flush();
+        } catch (CommandLaunchException e) {
+            Printer.println(e.getMessage());
+        }
+    }
 }
\ No newline at end of file
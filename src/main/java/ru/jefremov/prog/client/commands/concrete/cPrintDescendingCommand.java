@@ -7,7 +7,6 @@ import ru.jefremov.prog.common.commands.results.*;
 import ru.jefremov.prog.common.commands.states.*;
 
 import java.util.Arrays;
-import java.util.Comparator;
 
 /**
  * Команда, выводящая содержимое коллекции в порядке убывания.
@@ -33,7 +32,7 @@ public class cPrintDescendingCommand extends ClientAbstractCommand<CommandState,
         if (result.tickets==null || result.tickets.length == 0) {
             Printer.println("Collection is empty.");
         } else {
-            Arrays.stream(result.tickets).sorted(Comparator.reverseOrder()).forEachOrdered(Printer::println);
+            Arrays.stream(result.tickets).forEachOrdered(Printer::println);
         }
     }
 }
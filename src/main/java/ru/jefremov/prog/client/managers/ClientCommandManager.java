@@ -3,10 +3,16 @@ package ru.jefremov.prog.client.managers;
 
 import ru.jefremov.prog.client.commands.ClientAbstractCommand;
 import ru.jefremov.prog.client.commands.concrete.*;
+import ru.jefremov.prog.client.exceptions.ClientLaunchException;
 import ru.jefremov.prog.client.exceptions.QuitInterruptionException;
 import ru.jefremov.prog.client.exceptions.RequestSendingException;
 import ru.jefremov.prog.common.Printer;
+import ru.jefremov.prog.common.commands.results.BatchResult;
+import ru.jefremov.prog.common.commands.results.ScriptSummaryResult;
+import ru.jefremov.prog.common.commands.results.TicketsChunkResult;
+import ru.jefremov.prog.common.commands.states.BatchState;
 import ru.jefremov.prog.common.commands.states.CommandState;
+import ru.jefremov.prog.common.commands.states.ScriptState;
 import ru.jefremov.prog.common.exceptions.ExitInterruptionException;
 import ru.jefremov.prog.common.exceptions.command.CommandLaunchException;
 import ru.jefremov.prog.common.managers.CommandManager;
@@ -16,13 +22,50 @@ import ru.jefremov.prog.common.network.Status;
 import ru.jefremov.prog.server.exceptions.SerialisationException;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 
 /**
  * Класс, ответственный за запуск команд.
  */
 public class ClientCommandManager extends CommandManager<ClientAbstractCommand<?,?>> {
 
+    /**
+     * Максимальное количество запросов, отправленных без разбора ответа
+     */
+    public static final int PIPELINE_DEPTH = 64;
+    /**
+     * Количество попыток переподключения после потери соединения
+     */
+    public static final int RECONNECT_ATTEMPTS = 5;
+    /**
+     * Пауза перед первой попыткой переподключения в миллисекундах, перед каждой следующей удваивается
+     */
+    public static final long RECONNECT_DELAY = 200;
+    /**
+     * Максимальное количество команд в одном пакете
+     */
+    public static final int BATCH_SIZE = 256;
+    /**
+     * Максимальное количество команд в одной части загружаемого скрипта
+     */
+    public static final int UPLOAD_PART_SIZE = 10_000;
+    /**
+     * Сколько неудавшихся команд загруженного скрипта выводится в сводке
+     */
+    public static final int REPORTED_FAILURES = 20;
     public final ClientAdministrator administrator;
+    private final ArrayDeque<PendingCommand> inFlight = new ArrayDeque<>();
+    /**
+     * Команды скрипта, ещё не отправленные пакетом
+     */
+    private final ArrayList<String> batchWords = new ArrayList<>();
+    private final ArrayList<CommandState> batchStates = new ArrayList<>();
+    private final ArrayList<ClientAbstractCommand<?,?>> batchCommands = new ArrayList<>();
+    /**
+     * Загружаемый на сервер скрипт или null
+     */
+    private ScriptUpload upload;
 
     /**
      * Конструктор для менеджера комманд
@@ -34,6 +77,7 @@ public class ClientCommandManager extends CommandManager<ClientAbstractCommand<?
         String updateDescription = "Обновить значение элемента коллекции, id которого равен заданному";
         String showDescription = "Вывести все элементы коллекции";
         String executeScriptDescription = "Исполнить скрипт из указанного файла.";
+        String uploadScriptDescription = "Исполнить скрипт из указанного файла на сервере, получив только сводку";
         String removeByIdDescription = "Удалить элемент из коллекции по его id";
         String historyDescription = "Вывести последние 5 команд";
         String clearDescription = "Очистить коллекцию";
@@ -50,6 +94,7 @@ public class ClientCommandManager extends CommandManager<ClientAbstractCommand<?
         new cUpdateCommand("update",this, updateDescription);
         new cShowCommand("show",this,showDescription);
         new cExecuteScriptCommand("execute_script", this,executeScriptDescription);
+        new cUploadScriptCommand("upload_script", this, uploadScriptDescription);
         new cRemoveByIdCommand("remove_by_id", this,removeByIdDescription);
         new cHistoryCommand("history", this,historyDescription);
         new cClearCommand("clear",this,clearDescription);
@@ -64,7 +109,16 @@ public class ClientCommandManager extends CommandManager<ClientAbstractCommand<?
     }
 
     /**
-     * Запуск команды
+     * Запуск команды. В скриптовом режиме команды копятся в пакет до {@link #BATCH_SIZE} штук,
+     * команды с большими массивами отправляются отдельно после накопленного пакета.
+     * Запросы отправляются без ожидания ответа,
+     * ответы разбираются по порядку, когда число неразобранных запросов достигает {@link #PIPELINE_DEPTH},
+     * либо при вызове {@link #flush()}. При потере соединения клиент переподключается и повторно отправляет
+     * все запросы без ответа: сервер распознаёт уже исполненные по сессии и идентификатору.
+     * В интерактивном режиме команды, не ожидающие больших массивов, сначала отправляются по UDP.
+     * Во время загрузки скрипта все его команды копятся в части по {@link #UPLOAD_PART_SIZE} штук,
+     * запуски вложенных скриптов исполняются клиентом. Если скрипт для загрузки не удалось открыть,
+     * серверу ничего не отправляется.
      * @param word ключевое слово команды
      * @param line строка с аргументами
      * @throws CommandLaunchException вызывается в случае проблем с запуском команды
@@ -77,30 +131,288 @@ public class ClientCommandManager extends CommandManager<ClientAbstractCommand<?
             throw new CommandLaunchException("Command not found: "+word);
         }
         CommandState state = command.launch(line);
-        Request request = new Request(word, state, command.requiresLargeArrays);
-        try {
-            administrator.client.sendRequest(request);
-//            if (command.requiresLargeArrays) {
-//                //Long bytesLen = administrator.client.getDataLen();
-//            }
-            Response r = administrator.client.getResponse();
-            if (r==null || r.status == Status.ERROR || r.result==null) throw new CommandLaunchException("Broken request"+(r!=null?": "+r.text:""));
-            else {
-                if (command.reflexing) {
-                    command.interpretResult(r.result);
+        if (upload != null) {
+            sendBatch();
+            if (!word.equals("execute_script") && !word.equals("upload_script")) {
+                upload.add(word, state, administrator.scriptManager.traceLine());
+                if (upload.words.size() >= UPLOAD_PART_SIZE) sendUploadPart();
+            }
+            return;
+        }
+        if (word.equals("upload_script")) return;
+        boolean pipelined = !administrator.modeManager.canRespond();
+        if (pipelined && !command.requiresLargeArrays) {
+            batchWords.add(word);
+            batchStates.add(state);
+            batchCommands.add(command);
+            if (batchWords.size() >= BATCH_SIZE) sendBatch();
+            return;
+        }
+        sendBatch();
+        Request request = new Request(administrator.client.nextRequestId(), administrator.client.getSession(), word, state,
+                command.requiresLargeArrays, administrator.client.acceptsCompression());
+        if (!pipelined) {
+            flush();
+            if (!command.requiresLargeArrays) {
+                Response r = administrator.client.exchangeDatagram(request);
+                if (r != null) {
+                    check(r);
+                    if (command.reflexing) command.interpretResult(r.result);
+                    return;
                 }
             }
+        }
+        inFlight.add(new PendingCommand(request, command, null));
+        send(request);
+        if (!pipelined || inFlight.size() >= PIPELINE_DEPTH) {
+            receiveNext();
+        }
+    }
+
+    /**
+     * Отправляет накопленные команды одним пакетом
+     * @throws CommandLaunchException вызывается при потере соединения
+     */
+    private void sendBatch() throws CommandLaunchException {
+        if (batchWords.isEmpty()) return;
+        BatchState state = new BatchState(batchWords.toArray(new String[0]), batchStates.toArray(new CommandState[0]));
+        ClientAbstractCommand<?,?>[] commands = batchCommands.toArray(new ClientAbstractCommand<?,?>[0]);
+        batchWords.clear();
+        batchStates.clear();
+        batchCommands.clear();
+        Request request = new Request(administrator.client.nextRequestId(), administrator.client.getSession(), "batch", state,
+                false, administrator.client.acceptsCompression());
+        inFlight.add(new PendingCommand(request, null, commands));
+        send(request);
+        if (inFlight.size() >= PIPELINE_DEPTH) {
+            receiveNext();
+        }
+    }
+
+    /**
+     * Начинает загрузку скрипта: последующие команды не исполняются по одной, а копятся и отправляются частями.
+     * Вывод строк скрипта на время загрузки отключается.
+     */
+    public void startUpload() {
+        if (upload == null) upload = new ScriptUpload();
+        administrator.scriptManager.setEcho(false);
+    }
+
+    /**
+     * Учитывает сводку по исполненной части загруженного скрипта
+     * @param result сводка
+     */
+    public void recordUpload(ScriptSummaryResult result) {
+        if (upload == null) return;
+        upload.executed += result.executed;
+        for (int i = 0; i < result.failed.length; i++) {
+            upload.failed.add(result.failed[i]);
+            upload.errors.add(result.errors[i]);
+        }
+    }
+
+    /**
+     * Отправляет накопленную часть загружаемого скрипта
+     * @throws CommandLaunchException вызывается при потере соединения
+     */
+    private void sendUploadPart() throws CommandLaunchException {
+        if (upload == null || upload.words.isEmpty()) return;
+        ScriptState state = new ScriptState(upload.words.toArray(new String[0]),
+                upload.states.toArray(new CommandState[0]), upload.sent);
+        upload.sent += upload.words.size();
+        upload.words.clear();
+        upload.states.clear();
+        Request request = new Request(administrator.client.nextRequestId(), administrator.client.getSession(), "upload_script", state,
+                false, administrator.client.acceptsCompression());
+        inFlight.add(new PendingCommand(request, getCommand("upload_script"), null));
+        send(request);
+        if (inFlight.size() >= PIPELINE_DEPTH) {
+            receiveNext();
+        }
+    }
+
+    /**
+     * Отправляет накопленный пакет и разбирает ответы на все отправленные запросы.
+     * Ошибки отдельных команд выводятся, не прерывая разбора. Если загружался скрипт, выводится сводка по нему.
+     * @throws CommandLaunchException вызывается при потере соединения
+     */
+    public void flush() throws CommandLaunchException {
+        sendBatch();
+        sendUploadPart();
+        while (!inFlight.isEmpty()) {
+            try {
+                receiveNext();
+            } catch (CommandLaunchException e) {
+                if (!administrator.client.isRunning()) throw e;
+                Printer.println(e.getMessage());
+            }
+        }
+        finishUpload();
+    }
+
+    /**
+     * Выводит сводку по загруженному скрипту и завершает загрузку
+     */
+    private void finishUpload() {
+        if (upload == null) return;
+        ScriptUpload finished = upload;
+        upload = null;
+        administrator.scriptManager.setEcho(true);
+        Printer.println("Script uploaded: "+finished.executed+" commands executed, "+finished.failed.size()+" failed");
+        for (int i = 0; i < finished.failed.size() && i < REPORTED_FAILURES; i++) {
+            Printer.print(finished.traces.get(finished.failed.get(i)));
+            Printer.println("Broken request: "+finished.errors.get(i));
+        }
+        if (finished.failed.size() > REPORTED_FAILURES) {
+            Printer.println("... and "+(finished.failed.size()-REPORTED_FAILURES)+" more");
+        }
+    }
+
+    private void send(Request request) throws CommandLaunchException {
+        try {
+            administrator.client.sendRequest(request);
         } catch (RequestSendingException e) {
             if (e.getCause() instanceof IOException) {
-                administrator.client.stop();
-                throw new CommandLaunchException(e.getMessage());
+                recover();
             } else {
+                inFlight.pollLast();
                 throw new CommandLaunchException("Broken request");
             }
-        } catch (SerialisationException e) {
+        }
+    }
+
+    /**
+     * Получает и разбирает ответ на самый ранний запрос без ответа. Потоковый ответ разбирается по частям,
+     * пока не придёт последняя; части, разобранные до переподключения, пропускаются.
+     * @throws CommandLaunchException вызывается при ошибке выполнения команды или окончательной потере соединения
+     */
+    private void receiveNext() throws CommandLaunchException {
+        PendingCommand pending = inFlight.peek();
+        try {
+            boolean finished = false;
+            while (!finished) {
+                try {
+                    Response r = administrator.client.getResponse(pending.request.id);
+                    check(r);
+                    if (pending.batch != null) {
+                        interpretBatch(pending.batch, (BatchResult) r.result);
+                        finished = true;
+                        continue;
+                    }
+                    if (r.result instanceof TicketsChunkResult) {
+                        TicketsChunkResult chunk = (TicketsChunkResult) r.result;
+                        finished = chunk.last;
+                        if (chunk.index < pending.chunksReceived) continue;
+                        pending.chunksReceived++;
+                    } else {
+                        finished = true;
+                    }
+                    if (pending.command.reflexing) {
+                        pending.command.interpretResult(r.result);
+                    }
+                } catch (IOException e) {
+                    recover();
+                }
+            }
+        } catch (SerialisationException | ClassCastException e) {
             throw new CommandLaunchException("Broken request");
-        } catch (IOException e) {
-            throw new CommandLaunchException("Connection closed");
+        } finally {
+            inFlight.remove(pending);
+        }
+    }
+
+    /**
+     * Разбирает результаты пакета. Ошибки отдельных команд выводятся, не прерывая разбора.
+     * @param commands команды пакета
+     * @param result результаты пакета
+     */
+    private static void interpretBatch(ClientAbstractCommand<?,?>[] commands, BatchResult result) {
+        for (int i = 0; i < commands.length; i++) {
+            if (result.errors[i] != null) {
+                Printer.println("Broken request: "+result.errors[i]);
+            } else if (commands[i].reflexing) {
+                try {
+                    commands[i].interpretResult(result.results[i]);
+                } catch (CommandLaunchException e) {
+                    Printer.println(e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static void check(Response r) throws CommandLaunchException {
+        if (r==null || r.status != Status.OK || r.result==null) throw new CommandLaunchException("Broken request"+(r!=null?": "+r.text:""));
+    }
+
+    /**
+     * Переподключается к серверу и повторно отправляет все запросы без ответа
+     * @throws CommandLaunchException вызывается, если переподключиться не удалось
+     */
+    private void recover() throws CommandLaunchException {
+        long delay = RECONNECT_DELAY;
+        for (int attempt = 1; attempt <= RECONNECT_ATTEMPTS; attempt++) {
+            Printer.println("Connection lost, reconnecting ("+attempt+"/"+RECONNECT_ATTEMPTS+")");
+            try {
+                Thread.sleep(delay);
+                administrator.client.reconnect();
+                for (PendingCommand pending : inFlight) {
+                    administrator.client.sendRequest(pending.request);
+                }
+                Printer.println("Reconnected");
+                return;
+            } catch (ClientLaunchException | RequestSendingException e) {
+                delay *= 2;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        inFlight.clear();
+        administrator.client.stop();
+        throw new CommandLaunchException("Connection closed");
+    }
+
+    /**
+     * Состояние загрузки скрипта: ещё не отправленная часть команд, трассировки всех команд и накопленная сводка
+     */
+    private static class ScriptUpload {
+        private final ArrayList<String> words = new ArrayList<>();
+        private final ArrayList<CommandState> states = new ArrayList<>();
+        private final ArrayList<String> traces = new ArrayList<>();
+        /**
+         * Сколько команд уже отправлено
+         */
+        private int sent;
+        private int executed;
+        private final ArrayList<Integer> failed = new ArrayList<>();
+        private final ArrayList<String> errors = new ArrayList<>();
+
+        private void add(String word, CommandState state, String trace) {
+            words.add(word);
+            states.add(state);
+            traces.add(trace);
+        }
+    }
+
+    /**
+     * Отправленный запрос, ответ на который ещё не разобран
+     */
+    private static class PendingCommand {
+        private final Request request;
+        private final ClientAbstractCommand<?,?> command;
+        /**
+         * Команды пакета, если запрос отправлен пакетом
+         */
+        private final ClientAbstractCommand<?,?>[] batch;
+        /**
+         * Сколько частей потокового ответа уже разобрано
+         */
+        private int chunksReceived;
+
+        private PendingCommand(Request request, ClientAbstractCommand<?,?> command, ClientAbstractCommand<?,?>[] batch) {
+            this.request = request;
+            this.command = command;
+            this.batch = batch;
         }
     }
 }
@@ -15,6 +15,7 @@ import java.util.ArrayDeque;
 public class ScriptManager implements Submitter<String> {
     private final ArrayDeque<Script> scriptQueue = new ArrayDeque<>();
     private final int capacity;
+    private boolean echo = true;
 
     /**
      * Конструктор менеджера скриптов
@@ -75,10 +76,18 @@ public class ScriptManager implements Submitter<String> {
     @Override
     public String next() {
         String line = scriptQueue.getLast().next();
-        if (!line.contains("\n") && !line.isEmpty()) Printer.println(line);
+        if (echo && !line.contains("\n") && !line.isEmpty()) Printer.println(line);
         return line;
     }
 
+    /**
+     * Включает или отключает вывод исполняемых строк скрипта
+     * @param echo выводить ли строки
+     */
+    public void setEcho(boolean echo) {
+        this.echo = echo;
+    }
+
     /**
      * Получение информации о последней выполненной команде, с учётом рекурсии скриптов.
      * @return строка с трассировкой
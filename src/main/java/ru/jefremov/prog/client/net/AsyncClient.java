@@ -0,0 +1,369 @@
+package ru.jefremov.prog.client.net;
+
+import ru.jefremov.prog.client.exceptions.ClientLaunchException;
+import ru.jefremov.prog.client.exceptions.RequestSendingException;
+import ru.jefremov.prog.common.commands.results.TicketsChunkResult;
+import ru.jefremov.prog.common.commands.states.CommandState;
+import ru.jefremov.prog.common.models.Ticket;
+import ru.jefremov.prog.common.network.Handshake;
+import ru.jefremov.prog.common.network.Request;
+import ru.jefremov.prog.common.network.Response;
+import ru.jefremov.prog.common.serialisers.Serialiser;
+import ru.jefremov.prog.common.serialisers.WireCodec;
+import ru.jefremov.prog.common.serialisers.WireCodecs;
+import ru.jefremov.prog.server.exceptions.SerialisationException;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Неблокирующий клиент. Запросы отправляются без ожидания ответа, ответ возвращается через {@link CompletableFuture}.
+ * Чтение и запись выполняет поток {@link ClientReactor}, общий для многих клиентов, а полученные ответы
+ * декодируются его пулом декодирующих потоков по порядку. Потоковый ответ либо собирается из частей
+ * и возвращается одним ответом, либо передаётся по частям обработчику.
+ */
+public class AsyncClient {
+    final SocketChannel channel;
+    volatile SelectionKey key;
+    private final ClientReactor reactor;
+    private final AtomicLong nextRequestId = new AtomicLong(1);
+    private final Map<Long, PendingResponse> pending = new ConcurrentHashMap<>();
+    private final Queue<ByteBuffer> outgoing = new ConcurrentLinkedQueue<>();
+    private final Serialiser<Request> requests;
+    private final Serialiser<Response> responses;
+    /**
+     * Удерживается на время сериализации запроса и постановки его в очередь, чтобы запросы уходили в порядке сериализации
+     */
+    private final Object sending = new Object();
+    private volatile boolean compression = true;
+    /**
+     * Разрешено ли сжатие ответов при рукопожатии
+     */
+    private final boolean negotiatedCompression;
+    private volatile boolean running;
+    /**
+     * Состояние разбора ответа, используется только потоком селектора
+     */
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(Client.BLOCK_SIZE * 2);
+    private final ByteBuffer header = ByteBuffer.allocate(Client.BLOCK_HEADER_SIZE);
+    private byte[] block;
+    private int blockFilled;
+    private List<byte[]> blocks = new ArrayList<>();
+    /**
+     * Декодирование последнего полученного ответа. Следующий ответ декодируется после него,
+     * поэтому ответы и части потокового ответа доставляются в порядке получения.
+     */
+    private CompletableFuture<Void> decoding = CompletableFuture.completedFuture(null);
+
+    /**
+     * Подключается к серверу и передаёт подключение общему потоку селектора
+     * @param port порт сервера на локальной машине
+     * @throws ClientLaunchException вызывается, если подключиться не удалось
+     */
+    public AsyncClient(int port) throws ClientLaunchException {
+        this(new InetSocketAddress("localhost", port), sharedReactor());
+    }
+
+    /**
+     * Подключается к серверу и передаёт подключение указанному потоку селектора
+     * @param address адрес сервера
+     * @param reactor поток селектора
+     * @throws ClientLaunchException вызывается, если подключиться не удалось
+     */
+    public AsyncClient(InetSocketAddress address, ClientReactor reactor) throws ClientLaunchException {
+        this.reactor = reactor;
+        try {
+            channel = SocketChannel.open();
+        } catch (IOException e) {
+            throw new ClientLaunchException("Failed to launch client", e);
+        }
+        try {
+            channel.connect(address);
+            Handshake answer = Client.handshake(new DataInputStream(Channels.newInputStream(channel)),
+                    new DataOutputStream(Channels.newOutputStream(channel)));
+            WireCodec codec = WireCodecs.get(answer.codecs[0]);
+            requests = codec.requestSerialiser();
+            responses = codec.responseSerialiser();
+            negotiatedCompression = answer.compression;
+            channel.configureBlocking(false);
+        } catch (IOException | ClientLaunchException e) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            if (e instanceof ClientLaunchException) throw (ClientLaunchException) e;
+            throw new ClientLaunchException("Failed to launch client", e);
+        }
+        running = true;
+        reactor.register(this);
+    }
+
+    private static ClientReactor sharedReactor() throws ClientLaunchException {
+        try {
+            return ClientReactor.shared();
+        } catch (IOException e) {
+            throw new ClientLaunchException("Failed to start client selector", e);
+        }
+    }
+
+    /**
+     * Выдаёт идентификатор для очередного запроса
+     * @return идентификатор
+     */
+    public long nextRequestId() {
+        return nextRequestId.getAndIncrement();
+    }
+
+    /**
+     * Отправляет запрос. Идентификатор запроса должен быть уникальным в пределах клиента.
+     * @param request запрос
+     * @return ответ, который завершится по приходу ответа либо ошибкой при потере соединения
+     * @throws RequestSendingException вызывается, если запрос не удалось сериализовать или клиент остановлен
+     */
+    public CompletableFuture<Response> send(Request request) throws RequestSendingException {
+        return send(request, null);
+    }
+
+    /**
+     * Отправляет запрос, передавая билеты потокового ответа обработчику по мере получения частей, а не собирая их.
+     * Ответ завершается после последней части и содержит её результат без билетов.
+     * Обработчик вызывается декодирующим потоком; его ошибка завершает ответ ошибкой.
+     * @param request запрос
+     * @param chunks обработчик билетов каждой части или null, чтобы собрать их в один ответ
+     * @return ответ, который завершится по приходу ответа либо ошибкой при потере соединения
+     * @throws RequestSendingException вызывается, если запрос не удалось сериализовать или клиент остановлен
+     */
+    public CompletableFuture<Response> send(Request request, Consumer<Ticket[]> chunks) throws RequestSendingException {
+        if (!running) throw new RequestSendingException("Client is stopped");
+        PendingResponse response = new PendingResponse(chunks);
+        if (pending.putIfAbsent(request.id, response) != null) {
+            throw new RequestSendingException("Duplicate request id: "+request.id);
+        }
+        synchronized (sending) {
+            byte[] requestBytes;
+            try {
+                requestBytes = requests.serialize(request);
+            } catch (SerialisationException e) {
+                pending.remove(request.id);
+                throw new RequestSendingException("Failed to send request", e);
+            }
+            ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + requestBytes.length);
+            frame.putInt(requestBytes.length).put(requestBytes).flip();
+            outgoing.add(frame);
+        }
+        reactor.requestWrite(this);
+        if (!running) fail(new IOException("Connection closed"));
+        return response.future;
+    }
+
+    /**
+     * Отправляет запрос с очередным идентификатором
+     * @param word ключевое слово команды
+     * @param state состояние команды
+     * @param requiresLargeArrays ожидается ли в ответе большой массив
+     * @return ответ
+     * @throws RequestSendingException вызывается, если запрос не удалось отправить
+     */
+    public CompletableFuture<Response> send(String word, CommandState state, boolean requiresLargeArrays) throws RequestSendingException {
+        return send(new Request(nextRequestId(), word, state, requiresLargeArrays, acceptsCompression()));
+    }
+
+    /**
+     * Записывает накопленные запросы, пока канал их принимает
+     * @return отправлены ли все запросы
+     * @throws IOException вызывается при ошибке записи
+     */
+    boolean doWrite() throws IOException {
+        ByteBuffer frame;
+        while ((frame = outgoing.peek()) != null) {
+            channel.write(frame);
+            if (frame.hasRemaining()) return false;
+            outgoing.poll();
+        }
+        return true;
+    }
+
+    /**
+     * Читает доступные данные и разбирает полученные блоки ответов
+     * @throws IOException вызывается при потере соединения или нарушении формата
+     */
+    void doRead() throws IOException {
+        int read;
+        while ((read = channel.read(readBuffer)) > 0) {
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                consumeBlock();
+            }
+            readBuffer.clear();
+        }
+        if (read == -1) throw new IOException("Connection closed");
+    }
+
+    /**
+     * Разбирает заголовки блоков и копирует их содержимое. Поток селектора только собирает блоки ответа,
+     * а декодирует ответ пул декодирующих потоков.
+     * @throws IOException вызывается при нарушении формата
+     */
+    private void consumeBlock() throws IOException {
+        if (block == null) {
+            while (header.hasRemaining() && readBuffer.hasRemaining()) {
+                header.put(readBuffer.get());
+            }
+            if (header.hasRemaining()) return;
+            int size = header.getInt(0);
+            if (size < 0 || size > Client.BLOCK_SIZE) throw new IOException("Broken response block");
+            block = new byte[size];
+            blockFilled = 0;
+        }
+        int length = Math.min(block.length - blockFilled, readBuffer.remaining());
+        readBuffer.get(block, blockFilled, length);
+        blockFilled += length;
+        if (blockFilled < block.length) return;
+        byte flags = header.get(Integer.BYTES);
+        header.clear();
+        blocks.add(block);
+        block = null;
+        if ((flags & Client.BLOCK_LAST) != 0) {
+            List<byte[]> response = blocks;
+            blocks = new ArrayList<>();
+            boolean compressed = (flags & Client.BLOCK_COMPRESSED) != 0;
+            decoding = decoding.thenRunAsync(() -> decode(response, compressed), reactor.decoders());
+        }
+    }
+
+    /**
+     * Десериализует ответ из его блоков и доставляет его. Выполняется декодирующим потоком.
+     * @param blocks содержимое блоков ответа
+     * @param compressed сжат ли ответ
+     */
+    private void decode(List<byte[]> blocks, boolean compressed) {
+        List<InputStream> parts = new ArrayList<>(blocks.size());
+        for (byte[] part : blocks) {
+            parts.add(new ByteArrayInputStream(part));
+        }
+        InputStream payload = new SequenceInputStream(Collections.enumeration(parts));
+        try (InputStream responseStream = (compressed ? new InflaterInputStream(payload) : payload)) {
+            deliver(responses.deserialise(responseStream));
+        } catch (SerialisationException | IOException | RuntimeException e) {
+            fail(new IOException("Failed to deserialise response", e));
+        }
+    }
+
+    private void deliver(Response response) {
+        PendingResponse waiting = pending.get(response.requestId);
+        if (waiting == null) return;
+        if (response.result instanceof TicketsChunkResult) {
+            TicketsChunkResult chunk = (TicketsChunkResult) response.result;
+            if (waiting.chunks != null) {
+                try {
+                    if (chunk.tickets != null) waiting.chunks.accept(chunk.tickets);
+                } catch (RuntimeException e) {
+                    pending.remove(response.requestId);
+                    waiting.future.completeExceptionally(e);
+                    return;
+                }
+                if (!chunk.last) return;
+                response = new Response(response.requestId, response.text, response.status,
+                        new TicketsChunkResult(new Ticket[0], chunk.index, true));
+            } else {
+                if (chunk.tickets != null) waiting.tickets.addAll(Arrays.asList(chunk.tickets));
+                if (!chunk.last) return;
+                response = new Response(response.requestId, response.text, response.status,
+                        new TicketsChunkResult(waiting.tickets.toArray(new Ticket[0]), 0, true));
+            }
+        }
+        pending.remove(response.requestId);
+        waiting.future.complete(response);
+    }
+
+    /**
+     * Закрывает подключение, завершая все ожидающие ответы ошибкой
+     * @param cause причина
+     */
+    void fail(IOException cause) {
+        running = false;
+        SelectionKey selectionKey = key;
+        if (selectionKey != null) selectionKey.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        outgoing.clear();
+        for (Long requestId : pending.keySet()) {
+            PendingResponse waiting = pending.remove(requestId);
+            if (waiting != null) waiting.future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Геттер для поддержки сжатия ответов
+     * @return готов ли клиент принимать сжатые ответы
+     */
+    public boolean acceptsCompression() {
+        return compression && negotiatedCompression;
+    }
+
+    /**
+     * Включает или отключает сжатие ответов
+     * @param compression готов ли клиент принимать сжатые ответы
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Количество запросов, ответ на которые ещё не получен
+     * @return количество запросов
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public void stop() {
+        fail(new IOException("Client stopped"));
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Ответ, ожидаемый на отправленный запрос
+     */
+    private static class PendingResponse {
+        private final CompletableFuture<Response> future = new CompletableFuture<>();
+        /**
+         * Обработчик частей потокового ответа, null если части собираются в один ответ
+         */
+        private final Consumer<Ticket[]> chunks;
+        /**
+         * Билеты уже полученных частей потокового ответа
+         */
+        private final List<Ticket> tickets = new ArrayList<>();
+
+        private PendingResponse(Consumer<Ticket[]> chunks) {
+            this.chunks = chunks;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package ru.jefremov.prog.client.net;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Поток полезных данных одного ответа. Заголовки блоков отбрасываются по мере чтения,
+ * поэтому ответ десериализуется прямо из сокета, не накапливаясь в памяти целиком.
+ * Закрытие потока не закрывает сокет, а пропускает непрочитанный остаток ответа.
+ */
+class BlockInputStream extends InputStream {
+    private final DataInputStream in;
+    private int remaining;
+    private byte flags;
+    private boolean finished;
+    private IOException failure;
+
+    /**
+     * Читает заголовок первого блока ответа
+     * @param in поток подключения
+     * @throws IOException вызывается при потере соединения или нарушении формата
+     */
+    BlockInputStream(DataInputStream in) throws IOException {
+        this.in = in;
+        readHeader();
+    }
+
+    private void readHeader() throws IOException {
+        try {
+            remaining = in.readInt();
+            flags = in.readByte();
+        } catch (EOFException e) {
+            throw fail(new IOException("Connection lost"));
+        }
+        if (remaining < 0 || remaining > Client.BLOCK_SIZE) throw fail(new IOException("Broken response block"));
+    }
+
+    /**
+     * Переходит к следующему блоку, если текущий прочитан
+     * @return остались ли данные в ответе
+     * @throws IOException вызывается при потере соединения или нарушении формата
+     */
+    private boolean advance() throws IOException {
+        while (remaining == 0) {
+            if ((flags & Client.BLOCK_LAST) != 0) {
+                finished = true;
+                return false;
+            }
+            readHeader();
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (finished || !advance()) return -1;
+        int b = in.read();
+        if (b == -1) throw fail(new IOException("Connection lost"));
+        remaining--;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (finished || !advance()) return -1;
+        int read = in.read(b, off, Math.min(len, remaining));
+        if (read == -1) throw fail(new IOException("Connection lost"));
+        remaining -= read;
+        return read;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return finished ? 0 : Math.min(remaining, in.available());
+    }
+
+    /**
+     * @return сжат ли ответ
+     */
+    boolean isCompressed() {
+        return (flags & Client.BLOCK_COMPRESSED) != 0;
+    }
+
+    /**
+     * @return ошибка соединения, возникшая при чтении, или null
+     */
+    IOException getFailure() {
+        return failure;
+    }
+
+    private IOException fail(IOException e) {
+        failure = e;
+        return e;
+    }
+
+    /**
+     * Пропускает непрочитанный остаток ответа, чтобы следующий ответ читался с начала
+     * @throws IOException вызывается при потере соединения
+     */
+    @Override
+    public void close() throws IOException {
+        if (failure != null) return;
+        try {
+            while (!finished && advance()) {
+                in.skipNBytes(remaining);
+                remaining = 0;
+            }
+        } catch (EOFException e) {
+            throw fail(new IOException("Connection lost"));
+        }
+    }
+}
@@ -2,40 +2,98 @@ package ru.jefremov.prog.client.net;
 
 import ru.jefremov.prog.client.exceptions.ClientLaunchException;
 import ru.jefremov.prog.common.Printer;
+import ru.jefremov.prog.common.network.Handshake;
 import ru.jefremov.prog.common.network.Request;
 import ru.jefremov.prog.common.network.Response;
+import ru.jefremov.prog.common.network.Status;
+import ru.jefremov.prog.common.serialisers.Serialiser;
 import ru.jefremov.prog.common.serialisers.Serialisers;
+import ru.jefremov.prog.common.serialisers.WireCodec;
+import ru.jefremov.prog.common.serialisers.WireCodecs;
 import ru.jefremov.prog.client.exceptions.RequestSendingException;
 import ru.jefremov.prog.server.exceptions.SerialisationException;
 
-import java.io.BufferedInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.*;
 import java.net.*;
-import java.nio.ByteBuffer;
-import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.InflaterInputStream;
 
 public class Client {
-    private static final int BLOCK_SIZE = 10000;
-    private static InetAddress host;
-    private static Socket connection;
-    private InputStream is;
-    private OutputStream os;
+    static final int BLOCK_SIZE = 10000;
+    static final int BLOCK_HEADER_SIZE = Integer.BYTES + 1;
+    static final byte BLOCK_LAST = 1;
+    static final byte BLOCK_COMPRESSED = 2;
+    static final int MAX_DATAGRAM_SIZE = 8192;
+    /**
+     * До какого размера дополняется нулями запрос по UDP: сервер отвечает по UDP, только если ответ
+     * не больше запроса более чем в четыре раза
+     */
+    static final int MIN_DATAGRAM_REQUEST_SIZE = 256;
+    /**
+     * Команды, которые сервер исполняет по UDP
+     */
+    static final Set<String> DATAGRAM_COMMANDS = Set.of("info", "help", "history", "remove_by_id");
+    /**
+     * Время ожидания ответа на датаграмму в миллисекундах, удваивается при каждой повторной отправке
+     */
+    static final int DATAGRAM_TIMEOUT = 100;
+    static final int DATAGRAM_ATTEMPTS = 4;
+    private Socket connection;
+    private DataInputStream is;
+    private DataOutputStream os;
+    /**
+     * Сериализаторы текущего подключения, заменяются при переподключении
+     */
+    private Serialiser<Request> requests;
+    private Serialiser<Response> responses;
     private InetSocketAddress address;
     private int port;
     private boolean running;
+    private long nextRequestId = 1;
+    private boolean compression = true;
+    /**
+     * Разрешено ли сжатие ответов при рукопожатии
+     */
+    private boolean negotiatedCompression;
+    /**
+     * Сессия клиента, сохраняется при переподключении
+     */
+    private final UUID session = UUID.randomUUID();
+    private DatagramSocket datagrams;
+    /**
+     * Отвечает ли сервер по UDP. Сбрасывается, если сервер не ответил ни на одну попытку.
+     */
+    private boolean datagramsAvailable = true;
+    /**
+     * Ответы, пришедшие раньше ожидаемого. На один запрос может прийти несколько частей ответа.
+     */
+    private final HashMap<Long, ArrayDeque<Response>> earlyResponses = new HashMap<>();
 
     public Client(int port) throws ClientLaunchException {
         this.port = port;
+        address = new InetSocketAddress("localhost", port);
+        connect();
         running = true;
+    }
+
+    private void connect() throws ClientLaunchException {
         try {
-            host = InetAddress.getLocalHost();
             connection = new Socket();
-            address = new InetSocketAddress("localhost", port);
             connection.connect(address, 10000);
-            os = connection.getOutputStream();
-            is = connection.getInputStream();
+            os = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+            is = new DataInputStream(new BufferedInputStream(connection.getInputStream(), BLOCK_SIZE * 2));
+            Handshake answer = handshake(is, os);
+            WireCodec codec = WireCodecs.get(answer.codecs[0]);
+            requests = codec.requestSerialiser();
+            responses = codec.responseSerialiser();
+            negotiatedCompression = answer.compression;
+        } catch (ClientLaunchException e) {
+            closeQuietly();
+            throw e;
         } catch (UnknownHostException e) {
             throw new ClientLaunchException("Failed to launch client: Unknown host");
         } catch (SocketTimeoutException e) {
@@ -45,10 +103,71 @@ public class Client {
         }
     }
 
+    /**
+     * Выполняет рукопожатие: предлагает серверу допустимые форматы передачи и получает его выбор
+     * @param in поток подключения, из которого читается не больше ответа на рукопожатие
+     * @param out поток подключения
+     * @return ответ сервера с известным клиенту форматом
+     * @throws IOException вызывается при ошибке соединения
+     * @throws ClientLaunchException вызывается, если сервер отказал в подключении или ответил не по протоколу
+     */
+    static Handshake handshake(DataInputStream in, DataOutputStream out) throws IOException, ClientLaunchException {
+        byte[] offer = WireCodecs.offer().encode();
+        out.writeInt(offer.length);
+        out.write(offer);
+        out.flush();
+        Handshake answer;
+        BlockInputStream blocks = new BlockInputStream(in);
+        try {
+            answer = Handshake.decode(blocks);
+        } catch (StreamCorruptedException e) {
+            throw new ClientLaunchException("Server does not support handshake");
+        }
+        blocks.close();
+        if (answer.isRefused()) {
+            throw new ClientLaunchException("Server refused the connection"+(answer.reason != null ? ": "+answer.reason : ""));
+        }
+        if (WireCodecs.get(answer.codecs[0]) == null) {
+            throw new ClientLaunchException("Server chose an unknown wire format: "+answer.codecs[0]);
+        }
+        return answer;
+    }
+
+    private void closeQuietly() {
+        try {
+            connection.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Переподключается к серверу в рамках той же сессии. Ответы, полученные по старому подключению, отбрасываются.
+     * @throws ClientLaunchException вызывается, если подключиться не удалось
+     */
+    public void reconnect() throws ClientLaunchException {
+        try {
+            connection.close();
+        } catch (IOException ignored) {
+        }
+        earlyResponses.clear();
+        connect();
+        running = true;
+    }
+
+    /**
+     * Геттер для сессии клиента
+     * @return сессия
+     */
+    public UUID getSession() {
+        return session;
+    }
+
     public void sendRequest(Request request) throws RequestSendingException  {
         try {
-            byte[] requestBytes = Serialisers.requestSerialiser.serialize(request);
+            byte[] requestBytes = requests.serialize(request);
+            os.writeInt(requestBytes.length);
             os.write(requestBytes);
+            os.flush();
         } catch (IOException e) {
             throw new RequestSendingException("Failed to send request. Connection lost.", e);
         } catch (SerialisationException e) {
@@ -56,26 +175,113 @@ public class Client {
         }
     }
 
-    public Response getResponse() throws IOException, SerialisationException {
-        var bytes = new ArrayList<Byte>();
-        BufferedInputStream bufferedInputStream = new BufferedInputStream(is, BLOCK_SIZE * 2);
-        byte[] buffer = new byte[BLOCK_SIZE + 1];
-        int l = 0;
-        do {
-            int read = bufferedInputStream.read(buffer);
-            if (read == -1){
-                throw new IOException("Connection lost");
-
+    /**
+     * Отправляет запрос одной датаграммой и ждёт ответ, повторяя отправку при потере.
+     * Запрос должен содержать сессию: тогда повтор изменяющего запроса не исполнит его второй раз.
+     * По UDP отправляются только команды из {@link #DATAGRAM_COMMANDS}.
+     * @param request запрос
+     * @return ответ или null, если запрос нужно отправить по TCP
+     */
+    public Response exchangeDatagram(Request request) {
+        if (!datagramsAvailable || !DATAGRAM_COMMANDS.contains(request.word)) return null;
+        try {
+            byte[] requestBytes = Serialisers.requestSerialiser.serialize(request);
+            if (requestBytes.length > MAX_DATAGRAM_SIZE) return null;
+            if (requestBytes.length < MIN_DATAGRAM_REQUEST_SIZE) requestBytes = Arrays.copyOf(requestBytes, MIN_DATAGRAM_REQUEST_SIZE);
+            if (datagrams == null) {
+                datagrams = new DatagramSocket();
+                datagrams.connect(address);
             }
-            for (int i = 0; i < BLOCK_SIZE; i++){
-                bytes.add(buffer[i]);
+            byte[] buffer = new byte[MAX_DATAGRAM_SIZE];
+            int timeout = DATAGRAM_TIMEOUT;
+            for (int attempt = 0; attempt < DATAGRAM_ATTEMPTS; attempt++, timeout *= 2) {
+                datagrams.send(new DatagramPacket(requestBytes, requestBytes.length));
+                datagrams.setSoTimeout(timeout);
+                try {
+                    while (true) {
+                        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                        datagrams.receive(packet);
+                        Response response = Serialisers.responseSerialiser.deserialise(buffer, 0, packet.getLength());
+                        if (response.requestId != request.id) continue;
+                        return response.status == Status.RETRY_TCP ? null : response;
+                    }
+                } catch (SocketTimeoutException ignored) {
+                }
             }
-        } while (buffer[BLOCK_SIZE] != 1);
-        byte[] responseBytes = new byte[bytes.size()];
-        for (int i = 0; i < bytes.size(); i++){
-            responseBytes[i] = bytes.get(i);
+            Printer.println("Server does not respond over UDP, using TCP");
+        } catch (IOException e) {
+            Printer.println("UDP is not available, using TCP");
+        } catch (SerialisationException e) {
+            return null;
+        }
+        datagramsAvailable = false;
+        return null;
+    }
+
+    /**
+     * Выдаёт идентификатор для очередного запроса
+     * @return идентификатор
+     */
+    public long nextRequestId() {
+        return nextRequestId++;
+    }
+
+    /**
+     * Получает ответ на конкретный запрос. Ответы на другие запросы откладываются до их востребования.
+     * @param requestId идентификатор запроса
+     * @return ответ
+     * @throws IOException вызывается при потере соединения
+     * @throws SerialisationException вызывается, если ответ не удалось десериализовать
+     */
+    public Response getResponse(long requestId) throws IOException, SerialisationException {
+        ArrayDeque<Response> early = earlyResponses.get(requestId);
+        if (early != null) {
+            Response response = early.poll();
+            if (early.isEmpty()) earlyResponses.remove(requestId);
+            return response;
+        }
+        while (true) {
+            Response received = getResponse();
+            if (received.requestId == requestId) return received;
+            earlyResponses.computeIfAbsent(received.requestId, id -> new ArrayDeque<>()).add(received);
         }
-        return Serialisers.responseSerialiser.deserialise(responseBytes);
+    }
+
+    /**
+     * Получает очередной ответ. Ответ десериализуется по мере поступления блоков, без накопления целиком.
+     * @return ответ
+     * @throws IOException вызывается при потере соединения
+     * @throws SerialisationException вызывается, если ответ не удалось десериализовать
+     */
+    public Response getResponse() throws IOException, SerialisationException {
+        BlockInputStream blocks = new BlockInputStream(is);
+        InputStream responseStream = blocks;
+        if (blocks.isCompressed()) {
+            responseStream = new InflaterInputStream(blocks);
+        }
+        try {
+            return responses.deserialise(responseStream);
+        } catch (SerialisationException e) {
+            if (blocks.getFailure() != null) throw blocks.getFailure();
+            blocks.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Геттер для поддержки сжатия ответов
+     * @return готов ли клиент принимать сжатые ответы
+     */
+    public boolean acceptsCompression() {
+        return compression && negotiatedCompression;
+    }
+
+    /**
+     * Включает или отключает сжатие ответов
+     * @param compression готов ли клиент принимать сжатые ответы
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
     }
 
     public void stop() {
@@ -84,6 +290,7 @@ public class Client {
             is.close();
             os.close();
             connection.close();
+            if (datagrams != null) datagrams.close();
         } catch (IOException e) {
             Printer.println("Failed to stop client");
         }
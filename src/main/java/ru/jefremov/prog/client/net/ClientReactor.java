@@ -0,0 +1,146 @@
+package ru.jefremov.prog.client.net;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Поток селектора, обслуживающий подключения асинхронных клиентов.
+ * Один поток может обслуживать сотни клиентов одновременно: сам он только читает и пишет байты,
+ * а распаковка и десериализация ответов выполняются пулом декодирующих потоков.
+ */
+public class ClientReactor implements Runnable {
+    private static ClientReactor shared;
+    private final Selector selector;
+    private final Thread thread;
+    /**
+     * Потоки, декодирующие полученные ответы
+     */
+    private final ExecutorService decoders;
+    /**
+     * Клиенты, ожидающие регистрации в селекторе
+     */
+    private final Queue<AsyncClient> registering = new ConcurrentLinkedQueue<>();
+    /**
+     * Клиенты, у которых появились данные для отправки
+     */
+    private final Queue<AsyncClient> writing = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Создаёт селектор и запускает его поток
+     * @param name имя потока
+     * @throws IOException вызывается, если селектор не удалось открыть
+     */
+    public ClientReactor(String name) throws IOException {
+        selector = Selector.open();
+        decoders = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), task -> {
+            Thread decoder = new Thread(task, name + "-decoder");
+            decoder.setDaemon(true);
+            return decoder;
+        });
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Общий поток селектора, создаётся при первом обращении
+     * @return общий поток селектора
+     * @throws IOException вызывается, если селектор не удалось открыть
+     */
+    public static synchronized ClientReactor shared() throws IOException {
+        if (shared == null) shared = new ClientReactor("client-reactor");
+        return shared;
+    }
+
+    /**
+     * Пул, в котором клиенты декодируют ответы вне потока селектора
+     * @return пул декодирующих потоков
+     */
+    Executor decoders() {
+        return decoders;
+    }
+
+    /**
+     * Передаёт подключение клиента потоку селектора
+     * @param client клиент
+     */
+    void register(AsyncClient client) {
+        registering.add(client);
+        selector.wakeup();
+    }
+
+    /**
+     * Сообщает потоку селектора, что клиенту есть что отправить
+     * @param client клиент
+     */
+    void requestWrite(AsyncClient client) {
+        writing.add(client);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (selector.isOpen()) {
+            try {
+                selector.select();
+                registerClients();
+                enableWrites();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    AsyncClient client = (AsyncClient) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) client.doRead();
+                        if (key.isValid() && key.isWritable() && client.doWrite()) {
+                            key.interestOps(SelectionKey.OP_READ);
+                        }
+                    } catch (IOException e) {
+                        client.fail(e);
+                    }
+                }
+                selector.selectedKeys().clear();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void registerClients() {
+        AsyncClient client;
+        while ((client = registering.poll()) != null) {
+            SocketChannel channel = client.channel;
+            try {
+                client.key = channel.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE, client);
+            } catch (ClosedChannelException e) {
+                client.fail(e);
+            }
+        }
+    }
+
+    private void enableWrites() {
+        AsyncClient client;
+        while ((client = writing.poll()) != null) {
+            SelectionKey key = client.key;
+            if (key != null && key.isValid()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    /**
+     * Останавливает поток селектора и декодирующие потоки. Подключения клиентов при этом не закрываются.
+     */
+    public void stop() {
+        try {
+            selector.close();
+        } catch (IOException ignored) {
+        }
+        decoders.shutdown();
+    }
+}
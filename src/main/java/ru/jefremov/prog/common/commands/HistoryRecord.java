@@ -13,6 +13,19 @@ public class HistoryRecord implements Serializable {
         this.launched = LocalTime.now();
     }
 
+    public HistoryRecord(String word, LocalTime launched) {
+        this.word = word;
+        this.launched = launched;
+    }
+
+    public String getWord() {
+        return word;
+    }
+
+    public LocalTime getLaunched() {
+        return launched;
+    }
+
     @Override
     public String toString() {
         return launched.format(formatter)+" "+word;
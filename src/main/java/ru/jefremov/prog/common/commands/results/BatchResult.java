@@ -0,0 +1,18 @@
+package ru.jefremov.prog.common.commands.results;
+
+import java.io.Serializable;
+
+/**
+ * Результаты команд пакета в порядке исполнения. Для команды, которую не удалось исполнить,
+ * результат равен null, а ошибка содержит её описание.
+ */
+public class BatchResult extends CommandResult implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public final CommandResult[] results;
+    public final String[] errors;
+
+    public BatchResult(CommandResult[] results, String[] errors) {
+        this.results = results;
+        this.errors = errors;
+    }
+}
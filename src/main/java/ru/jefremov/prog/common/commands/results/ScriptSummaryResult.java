@@ -0,0 +1,23 @@
+package ru.jefremov.prog.common.commands.results;
+
+import java.io.Serializable;
+
+/**
+ * Сводка исполнения части скрипта: количество исполненных команд и номера команд, которые исполнить не удалось.
+ * Результаты самих команд не передаются.
+ */
+public class ScriptSummaryResult extends CommandResult implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public final int executed;
+    /**
+     * Номера неудавшихся команд в скрипте целиком
+     */
+    public final int[] failed;
+    public final String[] errors;
+
+    public ScriptSummaryResult(int executed, int[] failed, String[] errors) {
+        this.executed = executed;
+        this.failed = failed;
+        this.errors = errors;
+    }
+}
@@ -0,0 +1,21 @@
+package ru.jefremov.prog.common.commands.results;
+
+import ru.jefremov.prog.common.models.Ticket;
+
+import java.io.Serializable;
+
+/**
+ * Часть потокового результата с билетами. Части одного запроса приходят по порядку,
+ * пустой может быть только первая из них, если билетов нет вовсе.
+ */
+public class TicketsChunkResult extends TicketsArrayResult implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public final int index;
+    public final boolean last;
+
+    public TicketsChunkResult(Ticket[] tickets, int index, boolean last) {
+        super(tickets);
+        this.index = index;
+        this.last = last;
+    }
+}
@@ -0,0 +1,20 @@
+package ru.jefremov.prog.common.commands.states;
+
+import java.io.Serializable;
+
+/**
+ * Состояние пакета команд: ключевые слова и состояния команд в порядке исполнения
+ */
+public class BatchState extends CommandState implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public final String[] words;
+    public final CommandState[] states;
+
+    public BatchState(String[] words, CommandState[] states) {
+        if (words==null || states==null || words.length!=states.length) {
+            throw new IllegalArgumentException("Every command of a batch must have a state");
+        }
+        this.words = words;
+        this.states = states;
+    }
+}
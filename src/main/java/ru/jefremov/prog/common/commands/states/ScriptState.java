@@ -0,0 +1,20 @@
+package ru.jefremov.prog.common.commands.states;
+
+import java.io.Serializable;
+
+/**
+ * Часть загруженного на сервер скрипта: разобранные клиентом команды с состояниями.
+ * Вложенные скрипты уже раскрыты клиентом.
+ */
+public class ScriptState extends BatchState implements Serializable {
+    private static final long serialVersionUID = 1L;
+    /**
+     * Номер первой команды части в скрипте целиком
+     */
+    public final int offset;
+
+    public ScriptState(String[] words, CommandState[] states, int offset) {
+        super(words, states);
+        this.offset = offset;
+    }
+}
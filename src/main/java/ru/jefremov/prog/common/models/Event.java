@@ -6,12 +6,13 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Класс события. Хранится в коллекции.
  */
 public class Event implements Comparable<Event>, Serializable {
-    private static long nextId = 1;
+    private static final AtomicLong nextId = new AtomicLong(1);
     private long id; //Значение поля должно быть больше 0, Значение этого поля должно быть уникальным, Значение этого поля должно генерироваться автоматически
     @Expose
     private String name; //Поле не может быть null, Строка не может быть пустой
@@ -28,14 +29,37 @@ public class Event implements Comparable<Event>, Serializable {
      * @param eventType тип события
      */
     public Event(String name, Long ticketsCount, EventType eventType) {
-        this.id = nextId++;
+        this.id = nextId.getAndIncrement();
         this.name = name;
         this.ticketsCount = ticketsCount;
         this.eventType = eventType;
     }
 
     private Event() {
-        this.id = nextId++;
+        this.id = nextId.getAndIncrement();
+    }
+
+    private Event(long id, String name, Long ticketsCount, EventType eventType) {
+        this.id = id;
+        this.name = name;
+        this.ticketsCount = ticketsCount;
+        this.eventType = eventType;
+        this.initialised = true;
+    }
+
+    /**
+     * Восстанавливает событие, прочитанное из двоичного формата. Как и при стандартной десериализации,
+     * ещё не инициализированное событие получает новый идентификатор.
+     * @param id идентификатор
+     * @param name название
+     * @param ticketsCount количество билетов
+     * @param eventType тип события
+     * @param initialised было ли событие инициализировано
+     * @return событие
+     */
+    public static Event restore(long id, String name, Long ticketsCount, EventType eventType, boolean initialised) {
+        if (!initialised) id = nextId.getAndIncrement();
+        return new Event(id, name, ticketsCount, eventType);
     }
 
     /**
@@ -70,6 +94,14 @@ public class Event implements Comparable<Event>, Serializable {
         return eventType;
     }
 
+    /**
+     * Проверяет, получило ли событие идентификатор на сервере
+     * @return инициализировано ли событие
+     */
+    public boolean isInitialised() {
+        return initialised;
+    }
+
     /**
      * Проверка, что у двух событий совпадают все поля, кроме Id
      * @param other другое событие
@@ -134,7 +166,7 @@ public class Event implements Comparable<Event>, Serializable {
     private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
         ois.defaultReadObject();
         if (!initialised) {
-            id = nextId++;
+            id = nextId.getAndIncrement();
             initialised=true;
         }
     }
@@ -8,12 +8,13 @@ import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.time.LocalDate;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Класс билета. Хранится в коллекции.
  */
 public class Ticket implements Comparable<Ticket>, Serializable {
-    private static int nextId = 1;
+    private static final AtomicInteger nextId = new AtomicInteger(1);
     private int id; //Значение поля должно быть больше 0, Значение этого поля должно быть уникальным, Значение этого поля должно генерироваться автоматически
     @Expose
     private String name; //Поле не может быть null, Строка не может быть пустой
@@ -44,7 +45,7 @@ public class Ticket implements Comparable<Ticket>, Serializable {
      * @param event событие
      */
     public Ticket(String name, Coordinates coordinates, Double price, double discount, String comment, TicketType type, Event event) {
-        this.id = nextId++;
+        this.id = nextId.getAndIncrement();
         this.name = name;
         this.coordinates = coordinates;
         this.creationDate = LocalDate.now();
@@ -56,10 +57,47 @@ public class Ticket implements Comparable<Ticket>, Serializable {
     }
 
     private Ticket() {
-        this.id = nextId++;
+        this.id = nextId.getAndIncrement();
         this.creationDate = LocalDate.now();
     }
 
+    private Ticket(int id, String name, Coordinates coordinates, LocalDate creationDate, Double price, double discount, String comment, TicketType type, Event event) {
+        this.id = id;
+        this.name = name;
+        this.coordinates = coordinates;
+        this.creationDate = creationDate;
+        this.price = price;
+        this.discount = discount;
+        this.comment = comment;
+        this.type = type;
+        this.event = event;
+        this.initialised = true;
+    }
+
+    /**
+     * Восстанавливает билет, прочитанный из двоичного формата. Как и при стандартной десериализации,
+     * ещё не инициализированный билет получает новый идентификатор и дату создания.
+     * @param id идентификатор
+     * @param name название
+     * @param coordinates координаты
+     * @param creationDate дата создания
+     * @param price цена
+     * @param discount скидка
+     * @param comment комментарий
+     * @param type тип
+     * @param event событие
+     * @param initialised был ли билет инициализирован
+     * @return билет
+     */
+    public static Ticket restore(int id, String name, Coordinates coordinates, LocalDate creationDate, Double price, double discount,
+                                 String comment, TicketType type, Event event, boolean initialised) {
+        if (!initialised) {
+            id = nextId.getAndIncrement();
+            creationDate = LocalDate.now();
+        }
+        return new Ticket(id, name, coordinates, creationDate, price, discount, comment, type, event);
+    }
+
     /**
      * Геттер для идентификатора
      * @return идентификатор
@@ -133,6 +171,14 @@ public class Ticket implements Comparable<Ticket>, Serializable {
     }
 
 
+    /**
+     * Проверяет, получил ли билет идентификатор и дату создания на сервере
+     * @return инициализирован ли билет
+     */
+    public boolean isInitialised() {
+        return initialised;
+    }
+
     /**
      * Метод, позволяющий обновить билет значениями полей другого билета.
      * @param other
@@ -150,6 +196,21 @@ public class Ticket implements Comparable<Ticket>, Serializable {
         if (!event.identical(other.event)) this.event = other.event;
     }
 
+    /**
+     * Создаёт новый билет с тем же id и датой создания, но со значениями полей другого билета.
+     * В отличие от {@link #update(Ticket)}, сам билет не меняется.
+     * @param other другой билет
+     * @return обновлённая копия билета
+     */
+    public Ticket updated(Ticket other) {
+        if (other==null) {
+            throw new IllegalArgumentException("Cannot update ticket based on null");
+        }
+        return new Ticket(id, other.name, coordinates.identical(other.coordinates) ? coordinates : other.coordinates,
+                creationDate, other.price, other.discount, other.comment, other.type,
+                event.identical(other.event) ? event : other.event);
+    }
+
     /**
      * Проверяет, что у двух билетов совпадают все поля, кроме Id
      * @param other другой билет
@@ -210,11 +271,7 @@ public class Ticket implements Comparable<Ticket>, Serializable {
         if (event.identical(other.event)) {
             if (name.equals(other.name)) {
                 if (type==other.type) {
-                    if (price==null) {
-                        return (other.price==null ? 0 : -1);
-                    } else if (other.price==null) {
-                        return 1;
-                    } else if (Double.compare(price,other.price)==0) {
+                    if (price==null ? other.price==null : other.price!=null && Double.compare(price,other.price)==0) {
                         if (discount==other.discount) {
                             if (creationDate.equals(other.creationDate)) {
                                 if (coordinates.equals(other.coordinates)) {
@@ -229,7 +286,8 @@ public class Ticket implements Comparable<Ticket>, Serializable {
                         }
                         return Double.compare(discount,other.discount);
                     }
-                    return Double.compare(price,other.price);
+                    if (price==null) return -1;
+                    return (other.price==null ? 1 : Double.compare(price,other.price));
                 }
                 if (type==null) {
                     return -1;
@@ -245,7 +303,7 @@ public class Ticket implements Comparable<Ticket>, Serializable {
     private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
         ois.defaultReadObject();
         if (!initialised) {
-            id = nextId++;
+            id = nextId.getAndIncrement();
             creationDate = LocalDate.now();
             initialised=true;
         }
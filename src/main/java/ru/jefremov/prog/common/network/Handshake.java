@@ -0,0 +1,79 @@
+package ru.jefremov.prog.common.network;
+
+import java.io.*;
+
+/**
+ * Рукопожатие, которым начинается каждое TCP-подключение. Клиент перечисляет допустимые форматы передачи
+ * в порядке предпочтения и сообщает, готов ли принимать сжатые ответы. Сервер отвечает одним выбранным форматом
+ * и итоговым решением о сжатии либо отказом с причиной. Запросы и ответы передаются только после рукопожатия.
+ * Предложение отправляется обычным кадром запроса, ответ - одним блоком ответа.
+ */
+public class Handshake {
+    /**
+     * Сигнатура рукопожатия, байты "LAB5"
+     */
+    public static final int MAGIC = 0x4C414235;
+    /**
+     * Форматы передачи: в предложении - в порядке предпочтения, в ответе - выбранный или ни одного при отказе
+     */
+    public final String[] codecs;
+    public final boolean compression;
+    /**
+     * Причина отказа или null
+     */
+    public final String reason;
+
+    public Handshake(String[] codecs, boolean compression, String reason) {
+        if (codecs == null || codecs.length > 255) throw new IllegalArgumentException("Illegal list of wire formats");
+        this.codecs = codecs;
+        this.compression = compression;
+        this.reason = reason;
+    }
+
+    /**
+     * Формирует отказ
+     * @param reason причина
+     * @return ответ на рукопожатие
+     */
+    public static Handshake refuse(String reason) {
+        return new Handshake(new String[0], false, reason);
+    }
+
+    public boolean isRefused() {
+        return codecs.length == 0;
+    }
+
+    public byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeByte(codecs.length);
+            for (String codec : codecs) {
+                out.writeUTF(codec);
+            }
+            out.writeBoolean(compression);
+            out.writeUTF(reason == null ? "" : reason);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Читает рукопожатие, не заходя за его конец
+     * @param in поток
+     * @return рукопожатие
+     * @throws IOException вызывается при ошибке потока или если данные не являются рукопожатием
+     */
+    public static Handshake decode(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) throw new StreamCorruptedException("Connection must start with a handshake");
+        String[] codecs = new String[data.readUnsignedByte()];
+        for (int i = 0; i < codecs.length; i++) {
+            codecs[i] = data.readUTF();
+        }
+        boolean compression = data.readBoolean();
+        String reason = data.readUTF();
+        return new Handshake(codecs, compression, reason.isEmpty() ? null : reason);
+    }
+}
@@ -3,15 +3,40 @@ package ru.jefremov.prog.common.network;
 import ru.jefremov.prog.common.commands.states.CommandState;
 
 import java.io.Serializable;
+import java.util.UUID;
 
 public class Request implements Serializable {
+    /**
+     * Идентификатор запроса, по которому клиент сопоставляет ответы
+     */
+    public final long id;
+    /**
+     * Сессия клиента. Вместе с идентификатором запроса позволяет серверу распознать повторную отправку
+     * после переподключения. Если сессия не указана, запрос не защищён от повторного исполнения.
+     */
+    public final UUID session;
     public final String word;
     public final CommandState state;
     public final boolean requiresLargeArrays;
+    /**
+     * Может ли клиент принять сжатый ответ
+     */
+    public final boolean acceptsCompression;
 
-    public Request(String word, CommandState state, boolean requiresLargeArrays) {
+    public Request(long id, UUID session, String word, CommandState state, boolean requiresLargeArrays, boolean acceptsCompression) {
+        this.id = id;
+        this.session = session;
         this.word = word;
         this.state = state;
         this.requiresLargeArrays = requiresLargeArrays;
+        this.acceptsCompression = acceptsCompression;
+    }
+
+    public Request(long id, String word, CommandState state, boolean requiresLargeArrays, boolean acceptsCompression) {
+        this(id, null, word, state, requiresLargeArrays, acceptsCompression);
+    }
+
+    public Request(long id, String word, CommandState state, boolean requiresLargeArrays) {
+        this(id, word, state, requiresLargeArrays, false);
     }
 }
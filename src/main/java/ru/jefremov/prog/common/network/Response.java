@@ -5,11 +5,16 @@ import ru.jefremov.prog.common.commands.results.CommandResult;
 import java.io.Serializable;
 
 public class Response implements Serializable {
+    /**
+     * Идентификатор запроса, на который дан ответ
+     */
+    public final long requestId;
     public final String text;
     public final Status status;
     public final CommandResult result;
 
-    public Response(String text, Status status, CommandResult result) {
+    public Response(long requestId, String text, Status status, CommandResult result) {
+        this.requestId = requestId;
         this.text = text;
         this.status = status;
         this.result = result;
@@ -2,5 +2,9 @@ package ru.jefremov.prog.common.network;
 
 public enum Status {
     OK,
-    ERROR
+    ERROR,
+    /**
+     * Ответ не помещается в одну датаграмму, запрос нужно повторить по TCP
+     */
+    RETRY_TCP
 }
@@ -0,0 +1,503 @@
+package ru.jefremov.prog.common.serialisers;
+
+import ru.jefremov.prog.common.commands.HistoryRecord;
+import ru.jefremov.prog.common.commands.results.*;
+import ru.jefremov.prog.common.commands.states.*;
+import ru.jefremov.prog.common.models.*;
+import ru.jefremov.prog.common.network.Request;
+import ru.jefremov.prog.common.network.Response;
+import ru.jefremov.prog.common.network.Status;
+
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.StreamCorruptedException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * Компактный двоичный формат запросов, ответов, состояний, результатов и элементов коллекции.
+ * Вместо описаний классов и имён полей записываются только значения: целые числа в формате varint,
+ * вещественные - восемью байтами без упаковки, перечисления - порядковыми номерами.
+ * Конкретный класс состояния или результата определяется однобайтовой меткой.
+ * Массив билетов начинается со словаря строк: названия, комментарии и названия событий записываются
+ * в нём по одному разу, а билеты ссылаются на них номерами.
+ * При изменении формата нужно увеличить {@link #VERSION}.
+ */
+public final class BinaryCodec {
+    /**
+     * Версия формата, записывается первым байтом каждого сообщения
+     */
+    public static final int VERSION = 2;
+
+    private static final int NULL = 0;
+
+    private static final int COMMAND_STATE = 1;
+    private static final int INTEGER_STATE = 2;
+    private static final int STRING_STATE = 3;
+    private static final int EVENT_STATE = 4;
+    private static final int TICKET_STATE = 5;
+    private static final int TICKET_INTEGER_STATE = 6;
+    private static final int BATCH_STATE = 7;
+    private static final int SCRIPT_STATE = 8;
+
+    private static final int COMMAND_RESULT = 1;
+    private static final int INTEGER_RESULT = 2;
+    private static final int COLLECTION_INFO_RESULT = 3;
+    private static final int COMMANDS_ARRAY_RESULT = 4;
+    private static final int HISTORY_ARRAY_RESULT = 5;
+    private static final int TICKETS_ARRAY_RESULT = 6;
+    private static final int TICKETS_CHUNK_RESULT = 7;
+    private static final int BATCH_RESULT = 8;
+    private static final int SCRIPT_SUMMARY_RESULT = 9;
+
+    private static final int PRESENT = 1;
+    private static final int INITIALISED = 2;
+    private static final int HAS_VALUE = 4;
+
+    private static final int LARGE_ARRAYS = 1;
+    private static final int COMPRESSION = 2;
+    private static final int HAS_SESSION = 4;
+
+    private static final TicketType[] TICKET_TYPES = TicketType.values();
+    private static final EventType[] EVENT_TYPES = EventType.values();
+    private static final Status[] STATUSES = Status.values();
+
+    private BinaryCodec() {
+    }
+
+    public static void writeRequest(BinaryOutput out, Request request) throws IOException {
+        out.writeVarLong(request.id);
+        out.writeByte((request.requiresLargeArrays ? LARGE_ARRAYS : 0) | (request.acceptsCompression ? COMPRESSION : 0) |
+                (request.session != null ? HAS_SESSION : 0));
+        if (request.session != null) {
+            out.writeLong(request.session.getMostSignificantBits());
+            out.writeLong(request.session.getLeastSignificantBits());
+        }
+        out.writeString(request.word);
+        writeState(out, request.state);
+    }
+
+    public static Request readRequest(BinaryInput in) throws IOException {
+        long id = in.readVarLong();
+        int flags = in.readByte();
+        UUID session = (flags & HAS_SESSION) != 0 ? new UUID(in.readLong(), in.readLong()) : null;
+        String word = in.readString();
+        CommandState state = readState(in);
+        return new Request(id, session, word, state, (flags & LARGE_ARRAYS) != 0, (flags & COMPRESSION) != 0);
+    }
+
+    public static void writeResponse(BinaryOutput out, Response response) throws IOException {
+        out.writeVarLong(response.requestId);
+        out.writeString(response.text);
+        out.writeEnum(response.status);
+        writeResult(out, response.result);
+    }
+
+    public static Response readResponse(BinaryInput in) throws IOException {
+        long requestId = in.readVarLong();
+        String text = in.readString();
+        Status status = in.readEnum(STATUSES);
+        return new Response(requestId, text, status, readResult(in));
+    }
+
+    public static void writeState(BinaryOutput out, CommandState state) throws IOException {
+        if (state == null) {
+            out.writeByte(NULL);
+            return;
+        }
+        Class<?> type = state.getClass();
+        if (type == CommandState.class) {
+            out.writeByte(COMMAND_STATE);
+        } else if (type == IntegerArgumentedState.class) {
+            out.writeByte(INTEGER_STATE);
+            out.writeSignedVarInt(((IntegerArgumentedState) state).number);
+        } else if (type == StringArgumentedState.class) {
+            out.writeByte(STRING_STATE);
+            out.writeString(((StringArgumentedState) state).line);
+        } else if (type == EventArgumentedState.class) {
+            out.writeByte(EVENT_STATE);
+            writeEvent(out, ((EventArgumentedState) state).event);
+        } else if (type == TicketArgumentedState.class) {
+            out.writeByte(TICKET_STATE);
+            writeTicket(out, ((TicketArgumentedState) state).ticket);
+        } else if (type == TicketIntegerArgumentedState.class) {
+            TicketIntegerArgumentedState s = (TicketIntegerArgumentedState) state;
+            out.writeByte(TICKET_INTEGER_STATE);
+            writeTicket(out, s.ticket);
+            out.writeSignedVarInt(s.number);
+        } else if (type == BatchState.class) {
+            out.writeByte(BATCH_STATE);
+            writeBatch(out, (BatchState) state);
+        } else if (type == ScriptState.class) {
+            out.writeByte(SCRIPT_STATE);
+            writeBatch(out, (BatchState) state);
+            out.writeVarInt(((ScriptState) state).offset);
+        } else {
+            throw new NotSerializableException(type.getName());
+        }
+    }
+
+    public static CommandState readState(BinaryInput in) throws IOException {
+        int tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case COMMAND_STATE:
+                return new CommandState();
+            case INTEGER_STATE:
+                return new IntegerArgumentedState(in.readSignedVarInt());
+            case STRING_STATE:
+                return new StringArgumentedState(in.readString());
+            case EVENT_STATE:
+                return new EventArgumentedState(readEvent(in));
+            case TICKET_STATE:
+                return new TicketArgumentedState(readTicket(in));
+            case TICKET_INTEGER_STATE:
+                Ticket ticket = readTicket(in);
+                return new TicketIntegerArgumentedState(ticket, in.readSignedVarInt());
+            case BATCH_STATE:
+            case SCRIPT_STATE:
+                String[] words = readStrings(in);
+                int length = in.readLength();
+                CommandState[] states = length < 0 ? null : new CommandState[length];
+                for (int i = 0; i < length; i++) {
+                    states[i] = readState(in);
+                }
+                return tag == BATCH_STATE ? new BatchState(words, states) : new ScriptState(words, states, in.readVarInt());
+            default:
+                throw new StreamCorruptedException("Unknown state tag " + tag);
+        }
+    }
+
+    private static void writeBatch(BinaryOutput out, BatchState state) throws IOException {
+        writeStrings(out, state.words);
+        writeLength(out, state.states == null ? -1 : state.states.length);
+        if (state.states == null) return;
+        for (CommandState s : state.states) {
+            writeState(out, s);
+        }
+    }
+
+    public static void writeResult(BinaryOutput out, CommandResult result) throws IOException {
+        if (result == null) {
+            out.writeByte(NULL);
+            return;
+        }
+        Class<?> type = result.getClass();
+        if (type == CommandResult.class) {
+            out.writeByte(COMMAND_RESULT);
+        } else if (type == IntegerResult.class) {
+            out.writeByte(INTEGER_RESULT);
+            out.writeSignedVarInt(((IntegerResult) result).code);
+        } else if (type == CollectionInfoResult.class) {
+            out.writeByte(COLLECTION_INFO_RESULT);
+            out.writeString(((CollectionInfoResult) result).info);
+        } else if (type == CommandsArrayResult.class) {
+            out.writeByte(COMMANDS_ARRAY_RESULT);
+            writeStrings(out, ((CommandsArrayResult) result).words);
+        } else if (type == HistoryArrayResult.class) {
+            HistoryRecord[] history = ((HistoryArrayResult) result).history;
+            out.writeByte(HISTORY_ARRAY_RESULT);
+            writeLength(out, history == null ? -1 : history.length);
+            if (history != null) {
+                for (HistoryRecord record : history) {
+                    writeHistoryRecord(out, record);
+                }
+            }
+        } else if (type == TicketsArrayResult.class) {
+            out.writeByte(TICKETS_ARRAY_RESULT);
+            writeTickets(out, ((TicketsArrayResult) result).tickets);
+        } else if (type == TicketsChunkResult.class) {
+            TicketsChunkResult chunk = (TicketsChunkResult) result;
+            out.writeByte(TICKETS_CHUNK_RESULT);
+            writeTickets(out, chunk.tickets);
+            out.writeVarInt(chunk.index);
+            out.writeBoolean(chunk.last);
+        } else if (type == BatchResult.class) {
+            BatchResult batch = (BatchResult) result;
+            out.writeByte(BATCH_RESULT);
+            writeLength(out, batch.results == null ? -1 : batch.results.length);
+            if (batch.results != null) {
+                for (CommandResult r : batch.results) {
+                    writeResult(out, r);
+                }
+            }
+            writeStrings(out, batch.errors);
+        } else if (type == ScriptSummaryResult.class) {
+            ScriptSummaryResult summary = (ScriptSummaryResult) result;
+            out.writeByte(SCRIPT_SUMMARY_RESULT);
+            out.writeVarInt(summary.executed);
+            writeLength(out, summary.failed == null ? -1 : summary.failed.length);
+            if (summary.failed != null) {
+                for (int index : summary.failed) {
+                    out.writeVarInt(index);
+                }
+            }
+            writeStrings(out, summary.errors);
+        } else {
+            throw new NotSerializableException(type.getName());
+        }
+    }
+
+    public static CommandResult readResult(BinaryInput in) throws IOException {
+        int tag = in.readByte();
+        int length;
+        switch (tag) {
+            case NULL:
+                return null;
+            case COMMAND_RESULT:
+                return new CommandResult();
+            case INTEGER_RESULT:
+                return new IntegerResult(in.readSignedVarInt());
+            case COLLECTION_INFO_RESULT:
+                return new CollectionInfoResult(in.readString());
+            case COMMANDS_ARRAY_RESULT:
+                return new CommandsArrayResult(readStrings(in));
+            case HISTORY_ARRAY_RESULT:
+                length = in.readLength();
+                HistoryRecord[] history = length < 0 ? null : new HistoryRecord[length];
+                for (int i = 0; i < length; i++) {
+                    history[i] = readHistoryRecord(in);
+                }
+                return new HistoryArrayResult(history);
+            case TICKETS_ARRAY_RESULT:
+                return new TicketsArrayResult(readTickets(in));
+            case TICKETS_CHUNK_RESULT:
+                Ticket[] tickets = readTickets(in);
+                int index = in.readVarInt();
+                return new TicketsChunkResult(tickets, index, in.readBoolean());
+            case BATCH_RESULT:
+                length = in.readLength();
+                CommandResult[] results = length < 0 ? null : new CommandResult[length];
+                for (int i = 0; i < length; i++) {
+                    results[i] = readResult(in);
+                }
+                return new BatchResult(results, readStrings(in));
+            case SCRIPT_SUMMARY_RESULT:
+                int executed = in.readVarInt();
+                length = in.readLength();
+                int[] failed = length < 0 ? null : new int[length];
+                for (int i = 0; i < length; i++) {
+                    failed[i] = in.readVarInt();
+                }
+                return new ScriptSummaryResult(executed, failed, readStrings(in));
+            default:
+                throw new StreamCorruptedException("Unknown result tag " + tag);
+        }
+    }
+
+    public static void writeTicket(BinaryOutput out, Ticket ticket) throws IOException {
+        writeTicket(out, ticket, null);
+    }
+
+    /**
+     * Записывает билет
+     * @param out поток
+     * @param ticket билет
+     * @param dictionary номера строк в словаре массива или null, если строки записываются целиком
+     * @throws IOException вызывается при ошибке записи
+     */
+    private static void writeTicket(BinaryOutput out, Ticket ticket, HashMap<String, Integer> dictionary) throws IOException {
+        if (ticket == null) {
+            out.writeByte(NULL);
+            return;
+        }
+        Double price = ticket.getPrice();
+        out.writeByte(PRESENT | (ticket.isInitialised() ? INITIALISED : 0) | (price != null ? HAS_VALUE : 0));
+        out.writeVarInt(ticket.getId());
+        writeString(out, ticket.getName(), dictionary);
+        writeCoordinates(out, ticket.getCoordinates());
+        LocalDate creationDate = ticket.getCreationDate();
+        out.writeBoolean(creationDate != null);
+        if (creationDate != null) out.writeSignedVarLong(creationDate.toEpochDay());
+        if (price != null) out.writeDouble(price);
+        out.writeDouble(ticket.getDiscount());
+        writeString(out, ticket.getComment(), dictionary);
+        out.writeEnum(ticket.getType());
+        writeEvent(out, ticket.getEvent(), dictionary);
+    }
+
+    public static Ticket readTicket(BinaryInput in) throws IOException {
+        return readTicket(in, null);
+    }
+
+    /**
+     * Читает билет
+     * @param in поток
+     * @param dictionary словарь строк массива или null, если строки записаны целиком
+     * @return билет
+     * @throws IOException вызывается при ошибке чтения или повреждённых данных
+     */
+    private static Ticket readTicket(BinaryInput in, String[] dictionary) throws IOException {
+        int flags = in.readByte();
+        if (flags == NULL) return null;
+        int id = in.readVarInt();
+        String name = readString(in, dictionary);
+        Coordinates coordinates = readCoordinates(in);
+        LocalDate creationDate = in.readBoolean() ? LocalDate.ofEpochDay(in.readSignedVarLong()) : null;
+        Double price = (flags & HAS_VALUE) != 0 ? in.readDouble() : null;
+        double discount = in.readDouble();
+        String comment = readString(in, dictionary);
+        TicketType type = in.readEnum(TICKET_TYPES);
+        Event event = readEvent(in, dictionary);
+        return Ticket.restore(id, name, coordinates, creationDate, price, discount, comment, type, event, (flags & INITIALISED) != 0);
+    }
+
+    public static void writeEvent(BinaryOutput out, Event event) throws IOException {
+        writeEvent(out, event, null);
+    }
+
+    private static void writeEvent(BinaryOutput out, Event event, HashMap<String, Integer> dictionary) throws IOException {
+        if (event == null) {
+            out.writeByte(NULL);
+            return;
+        }
+        Long ticketsCount = event.getTicketsCount();
+        out.writeByte(PRESENT | (event.isInitialised() ? INITIALISED : 0) | (ticketsCount != null ? HAS_VALUE : 0));
+        out.writeVarLong(event.getId());
+        writeString(out, event.getName(), dictionary);
+        if (ticketsCount != null) out.writeSignedVarLong(ticketsCount);
+        out.writeEnum(event.getEventType());
+    }
+
+    public static Event readEvent(BinaryInput in) throws IOException {
+        return readEvent(in, null);
+    }
+
+    private static Event readEvent(BinaryInput in, String[] dictionary) throws IOException {
+        int flags = in.readByte();
+        if (flags == NULL) return null;
+        long id = in.readVarLong();
+        String name = readString(in, dictionary);
+        Long ticketsCount = (flags & HAS_VALUE) != 0 ? in.readSignedVarLong() : null;
+        EventType eventType = in.readEnum(EVENT_TYPES);
+        return Event.restore(id, name, ticketsCount, eventType, (flags & INITIALISED) != 0);
+    }
+
+    private static void writeCoordinates(BinaryOutput out, Coordinates coordinates) throws IOException {
+        if (coordinates == null) {
+            out.writeByte(NULL);
+            return;
+        }
+        Double y = coordinates.getY();
+        out.writeByte(PRESENT | (y != null ? HAS_VALUE : 0));
+        out.writeSignedVarInt(coordinates.getX());
+        if (y != null) out.writeDouble(y);
+    }
+
+    private static Coordinates readCoordinates(BinaryInput in) throws IOException {
+        int flags = in.readByte();
+        if (flags == NULL) return null;
+        int x = in.readSignedVarInt();
+        return new Coordinates(x, (flags & HAS_VALUE) != 0 ? in.readDouble() : null);
+    }
+
+    public static void writeHistoryRecord(BinaryOutput out, HistoryRecord record) throws IOException {
+        if (record == null) {
+            out.writeByte(NULL);
+            return;
+        }
+        out.writeByte(PRESENT);
+        out.writeString(record.getWord());
+        out.writeVarLong(record.getLaunched().toNanoOfDay());
+    }
+
+    public static HistoryRecord readHistoryRecord(BinaryInput in) throws IOException {
+        if (in.readByte() == NULL) return null;
+        String word = in.readString();
+        return new HistoryRecord(word, LocalTime.ofNanoOfDay(in.readVarLong()));
+    }
+
+    /**
+     * Записывает массив билетов вместе со словарём его строк. Каждая различная строка попадает в словарь один раз.
+     */
+    private static void writeTickets(BinaryOutput out, Ticket[] tickets) throws IOException {
+        writeLength(out, tickets == null ? -1 : tickets.length);
+        if (tickets == null) return;
+        HashMap<String, Integer> dictionary = new HashMap<>();
+        ArrayList<String> entries = new ArrayList<>();
+        for (Ticket ticket : tickets) {
+            if (ticket == null) continue;
+            addEntry(dictionary, entries, ticket.getName());
+            addEntry(dictionary, entries, ticket.getComment());
+            if (ticket.getEvent() != null) addEntry(dictionary, entries, ticket.getEvent().getName());
+        }
+        out.writeVarInt(entries.size());
+        for (String entry : entries) {
+            out.writeString(entry);
+        }
+        for (Ticket ticket : tickets) {
+            writeTicket(out, ticket, dictionary);
+        }
+    }
+
+    private static void addEntry(HashMap<String, Integer> dictionary, ArrayList<String> entries, String s) {
+        if (s != null && dictionary.putIfAbsent(s, entries.size()) == null) entries.add(s);
+    }
+
+    /**
+     * Читает массив билетов. Одинаковые строки всех билетов массива - один и тот же объект из словаря.
+     */
+    private static Ticket[] readTickets(BinaryInput in) throws IOException {
+        int length = in.readLength();
+        if (length < 0) return null;
+        int size = in.readVarInt();
+        if (size < 0 || size > BinaryInput.MAX_LENGTH) throw new StreamCorruptedException("Dictionary is too large");
+        String[] dictionary = new String[size];
+        for (int i = 0; i < size; i++) {
+            dictionary[i] = in.readString();
+        }
+        Ticket[] tickets = new Ticket[length];
+        for (int i = 0; i < length; i++) {
+            tickets[i] = readTicket(in, dictionary);
+        }
+        return tickets;
+    }
+
+    /**
+     * Записывает строку целиком или номером в словаре, увеличенным на единицу. Ноль означает null.
+     */
+    private static void writeString(BinaryOutput out, String s, HashMap<String, Integer> dictionary) throws IOException {
+        if (dictionary == null) {
+            out.writeString(s);
+        } else {
+            out.writeVarInt(s == null ? 0 : dictionary.get(s) + 1);
+        }
+    }
+
+    private static String readString(BinaryInput in, String[] dictionary) throws IOException {
+        if (dictionary == null) return in.readString();
+        int index = in.readVarInt();
+        if (index == 0) return null;
+        if (index < 0 || index > dictionary.length) throw new StreamCorruptedException("Unknown dictionary entry " + index);
+        return dictionary[index - 1];
+    }
+
+    private static void writeStrings(BinaryOutput out, String[] strings) throws IOException {
+        writeLength(out, strings == null ? -1 : strings.length);
+        if (strings == null) return;
+        for (String s : strings) {
+            out.writeString(s);
+        }
+    }
+
+    private static String[] readStrings(BinaryInput in) throws IOException {
+        int length = in.readLength();
+        if (length < 0) return null;
+        String[] strings = new String[length];
+        for (int i = 0; i < length; i++) {
+            strings[i] = in.readString();
+        }
+        return strings;
+    }
+
+    /**
+     * Записывает длину массива, увеличенную на единицу. Ноль означает null.
+     */
+    private static void writeLength(BinaryOutput out, int length) throws IOException {
+        out.writeVarInt(length + 1);
+    }
+}
@@ -0,0 +1,130 @@
+package ru.jefremov.prog.common.serialisers;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Буферизованное чтение примитивов, записанных {@link BinaryOutput}.
+ * Длины строк и массивов проверяются, чтобы повреждённые данные не приводили к огромным выделениям памяти.
+ */
+public class BinaryInput implements Closeable {
+    /**
+     * Максимальная длина строки в байтах и массива в элементах
+     */
+    public static final int MAX_LENGTH = 1 << 24;
+    private final InputStream in;
+    private final byte[] buffer = new byte[8192];
+    private int position;
+    private int limit;
+
+    public BinaryInput(InputStream in) {
+        this.in = in;
+    }
+
+    public int readByte() throws IOException {
+        if (position == limit) fill();
+        return buffer[position++] & 0xFF;
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public int readVarInt() throws IOException {
+        long value = readVarLong();
+        if ((value & ~0xFFFFFFFFL) != 0) throw new StreamCorruptedException("Varint is out of range");
+        return (int) value;
+    }
+
+    public long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new StreamCorruptedException("Malformed varint");
+    }
+
+    public long readSignedVarLong() throws IOException {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public int readSignedVarInt() throws IOException {
+        long value = readSignedVarLong();
+        if (value != (int) value) throw new StreamCorruptedException("Varint is out of range");
+        return (int) value;
+    }
+
+    public long readLong() throws IOException {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | readByte();
+        }
+        return value;
+    }
+
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    public String readString() throws IOException {
+        int length = readLength();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        readBytes(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Читает значение перечисления, записанное {@link BinaryOutput#writeEnum(Enum)}
+     * @param values все значения перечисления
+     * @return значение или null
+     * @throws IOException вызывается при ошибке потока или неизвестном номере
+     */
+    public <E extends Enum<E>> E readEnum(E[] values) throws IOException {
+        int ordinal = readVarInt();
+        if (ordinal == 0) return null;
+        if (ordinal > values.length) throw new StreamCorruptedException("Unknown enum constant");
+        return values[ordinal - 1];
+    }
+
+    /**
+     * Читает длину строки или массива, увеличенную на единицу
+     * @return длина или -1, если записан null
+     * @throws IOException вызывается при ошибке потока или слишком большой длине
+     */
+    public int readLength() throws IOException {
+        int length = readVarInt();
+        if (length < 0 || length > MAX_LENGTH + 1) throw new StreamCorruptedException("Length is out of range");
+        return length - 1;
+    }
+
+    public void readBytes(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (position == limit) fill();
+            int length = Math.min(bytes.length - offset, limit - position);
+            System.arraycopy(buffer, position, bytes, offset, length);
+            position += length;
+            offset += length;
+        }
+    }
+
+    private void fill() throws IOException {
+        int read = in.read(buffer, 0, buffer.length);
+        if (read <= 0) throw new EOFException();
+        position = 0;
+        limit = read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
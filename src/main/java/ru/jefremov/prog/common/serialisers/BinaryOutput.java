@@ -0,0 +1,127 @@
+package ru.jefremov.prog.common.serialisers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Буферизованная запись примитивов компактного двоичного формата. Целые числа записываются в формате varint:
+ * по 7 бит на байт, старший бит означает продолжение. Знаковые числа предварительно переводятся в zigzag.
+ */
+public class BinaryOutput implements Closeable {
+    private final OutputStream out;
+    private final byte[] buffer = new byte[8192];
+    private int position;
+
+    public BinaryOutput(OutputStream out) {
+        this.out = out;
+    }
+
+    public void writeByte(int b) throws IOException {
+        if (position == buffer.length) drain();
+        buffer[position++] = (byte) b;
+    }
+
+    public void writeBoolean(boolean b) throws IOException {
+        writeByte(b ? 1 : 0);
+    }
+
+    /**
+     * Записывает неотрицательное число
+     * @param value число, отрицательные числа записываются как беззнаковые
+     * @throws IOException вызывается при ошибке потока
+     */
+    public void writeVarInt(int value) throws IOException {
+        writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    public void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        writeByte((int) value);
+    }
+
+    /**
+     * Записывает число, которое может быть отрицательным
+     * @param value число
+     * @throws IOException вызывается при ошибке потока
+     */
+    public void writeSignedVarLong(long value) throws IOException {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    public void writeSignedVarInt(int value) throws IOException {
+        writeSignedVarLong(value);
+    }
+
+    public void writeLong(long value) throws IOException {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            writeByte((int) (value >>> shift));
+        }
+    }
+
+    public void writeDouble(double value) throws IOException {
+        writeLong(Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Записывает строку в UTF-8 с длиной в начале. Длина увеличена на единицу, ноль означает null.
+     * @param s строка или null
+     * @throws IOException вызывается при ошибке потока
+     */
+    public void writeString(String s) throws IOException {
+        if (s == null) {
+            writeVarInt(0);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length + 1);
+        writeBytes(bytes);
+    }
+
+    /**
+     * Записывает значение перечисления порядковым номером, увеличенным на единицу. Ноль означает null.
+     * @param value значение или null
+     * @throws IOException вызывается при ошибке потока
+     */
+    public void writeEnum(Enum<?> value) throws IOException {
+        writeVarInt(value == null ? 0 : value.ordinal() + 1);
+    }
+
+    public void writeBytes(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (position == buffer.length) drain();
+            int length = Math.min(bytes.length - offset, buffer.length - position);
+            System.arraycopy(bytes, offset, buffer, position, length);
+            position += length;
+            offset += length;
+        }
+    }
+
+    private void drain() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+    }
+
+    public void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    /**
+     * Дописывает буфер и закрывает поток
+     * @throws IOException вызывается при ошибке потока
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package ru.jefremov.prog.common.serialisers;
+
+import ru.jefremov.prog.server.exceptions.SerialisationException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+
+/**
+ * Сериализатор в компактный двоичный формат {@link BinaryCodec}. Каждое сообщение начинается с версии формата.
+ * Как и {@link Serialiser}, закрывает поток после записи или чтения.
+ * @param <T> тип сериализуемых объектов
+ */
+public class BinarySerialiser<T> extends Serialiser<T> {
+    private final Writer<T> writer;
+    private final Reader<T> reader;
+
+    public BinarySerialiser(Writer<T> writer, Reader<T> reader) {
+        this.writer = writer;
+        this.reader = reader;
+    }
+
+    @Override
+    public void serialize(T object, OutputStream out) throws SerialisationException {
+        try (BinaryOutput output = new BinaryOutput(out)) {
+            output.writeByte(BinaryCodec.VERSION);
+            writer.write(output, object);
+        } catch (IOException e) {
+            throw new SerialisationException("Serialisation failed", e);
+        }
+    }
+
+    @Override
+    public T deserialise(InputStream in) throws SerialisationException {
+        try (BinaryInput input = new BinaryInput(in)) {
+            int version = input.readByte();
+            if (version != BinaryCodec.VERSION) throw new StreamCorruptedException("Unsupported format version " + version);
+            return reader.read(input);
+        } catch (IOException e) {
+            throw new SerialisationException("Serialisation failed", e);
+        }
+    }
+
+    /**
+     * Запись объекта в двоичный поток
+     */
+    @FunctionalInterface
+    public interface Writer<T> {
+        void write(BinaryOutput out, T object) throws IOException;
+    }
+
+    /**
+     * Чтение объекта из двоичного потока
+     */
+    @FunctionalInterface
+    public interface Reader<T> {
+        T read(BinaryInput in) throws IOException;
+    }
+}
@@ -0,0 +1,220 @@
+package ru.jefremov.prog.common.serialisers;
+
+import com.google.gson.*;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import ru.jefremov.prog.common.commands.HistoryRecord;
+import ru.jefremov.prog.common.commands.results.*;
+import ru.jefremov.prog.common.commands.states.*;
+import ru.jefremov.prog.common.models.*;
+import ru.jefremov.prog.common.network.Request;
+import ru.jefremov.prog.common.network.Response;
+import ru.jefremov.prog.server.exceptions.SerialisationException;
+
+import java.io.*;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.HashMap;
+
+/**
+ * Отладочный формат: каждое сообщение - одна строка JSON. Состояния и результаты записываются объектом
+ * с названием класса в поле "type" и содержимым в поле "value".
+ * @param <T> тип сериализуемых объектов
+ */
+public class JsonLinesSerialiser<T> extends Serialiser<T> {
+    public static final JsonLinesSerialiser<Request> requests = new JsonLinesSerialiser<>(Request.class);
+    public static final JsonLinesSerialiser<Response> responses = new JsonLinesSerialiser<>(Response.class);
+
+    private static final Gson gson = new GsonBuilder()
+            .registerTypeAdapterFactory(new PolymorphicAdapterFactory<>(CommandState.class,
+                    CommandState.class, IntegerArgumentedState.class, StringArgumentedState.class, EventArgumentedState.class,
+                    TicketArgumentedState.class, TicketIntegerArgumentedState.class, BatchState.class, ScriptState.class))
+            .registerTypeAdapterFactory(new PolymorphicAdapterFactory<>(CommandResult.class,
+                    CommandResult.class, IntegerResult.class, CollectionInfoResult.class, CommandsArrayResult.class,
+                    HistoryArrayResult.class, TicketsArrayResult.class, TicketsChunkResult.class, BatchResult.class,
+                    ScriptSummaryResult.class))
+            .registerTypeAdapter(Ticket.class, new TicketAdapter())
+            .registerTypeAdapter(Event.class, new EventAdapter())
+            .registerTypeAdapter(HistoryRecord.class, new HistoryRecordAdapter())
+            .serializeNulls()
+            .create();
+
+    private final Class<T> type;
+
+    public JsonLinesSerialiser(Class<T> type) {
+        this.type = type;
+    }
+
+    @Override
+    public void serialize(T object, OutputStream out) throws SerialisationException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            gson.toJson(object, type, writer);
+            writer.write('\n');
+        } catch (IOException | JsonIOException e) {
+            throw new SerialisationException("Serialisation failed", e);
+        }
+    }
+
+    @Override
+    public T deserialise(InputStream in) throws SerialisationException {
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            T object = gson.fromJson(reader, type);
+            if (object == null) throw new SerialisationException("Empty message");
+            return object;
+        } catch (IOException | JsonParseException e) {
+            throw new SerialisationException("Serialisation failed", e);
+        }
+    }
+
+    /**
+     * Записывает наследников базового класса с названием конкретного класса
+     */
+    private static class PolymorphicAdapterFactory<B> implements TypeAdapterFactory {
+        private final Class<B> base;
+        private final HashMap<String, Class<? extends B>> types = new HashMap<>();
+
+        @SafeVarargs
+        private PolymorphicAdapterFactory(Class<B> base, Class<? extends B>... types) {
+            this.base = base;
+            for (Class<? extends B> type : types) {
+                this.types.put(type.getSimpleName(), type);
+            }
+        }
+
+        @Override
+        public <A> TypeAdapter<A> create(Gson gson, TypeToken<A> typeToken) {
+            if (!base.isAssignableFrom(typeToken.getRawType())) return null;
+            TypeAdapterFactory factory = this;
+            return new TypeAdapter<>() {
+                @Override
+                public void write(JsonWriter out, A value) throws IOException {
+                    if (value == null) {
+                        out.nullValue();
+                        return;
+                    }
+                    Class<?> type = value.getClass();
+                    if (types.get(type.getSimpleName()) != type) throw new JsonIOException("Unsupported type " + type.getName());
+                    out.beginObject();
+                    out.name("type").value(type.getSimpleName());
+                    out.name("value");
+                    delegate(type).write(out, value);
+                    out.endObject();
+                }
+
+                @Override
+                public A read(JsonReader in) throws IOException {
+                    if (in.peek() == JsonToken.NULL) {
+                        in.nextNull();
+                        return null;
+                    }
+                    in.beginObject();
+                    if (!"type".equals(in.nextName())) throw new JsonParseException("Type must be the first field");
+                    Class<?> type = types.get(in.nextString());
+                    if (type == null || !typeToken.getRawType().isAssignableFrom(type)) throw new JsonParseException("Unknown type");
+                    if (!"value".equals(in.nextName())) throw new JsonParseException("Value must follow the type");
+                    A value = delegate(type).read(in);
+                    in.endObject();
+                    return value;
+                }
+
+                @SuppressWarnings("unchecked")
+                private TypeAdapter<A> delegate(Class<?> type) {
+                    return (TypeAdapter<A>) gson.getDelegateAdapter(factory, TypeToken.get(type));
+                }
+            };
+        }
+    }
+
+    /**
+     * Билет восстанавливается через {@link Ticket#restore}, чтобы новый билет получил идентификатор на сервере
+     */
+    private static class TicketAdapter implements JsonSerializer<Ticket>, JsonDeserializer<Ticket> {
+        @Override
+        public JsonElement serialize(Ticket ticket, Type type, JsonSerializationContext context) {
+            JsonObject object = new JsonObject();
+            object.addProperty("id", ticket.getId());
+            object.addProperty("name", ticket.getName());
+            object.add("coordinates", context.serialize(ticket.getCoordinates()));
+            object.addProperty("creationDate", ticket.getCreationDate() == null ? null : ticket.getCreationDate().toString());
+            object.addProperty("price", ticket.getPrice());
+            object.addProperty("discount", ticket.getDiscount());
+            object.addProperty("comment", ticket.getComment());
+            object.add("type", context.serialize(ticket.getType()));
+            object.add("event", context.serialize(ticket.getEvent()));
+            object.addProperty("initialised", ticket.isInitialised());
+            return object;
+        }
+
+        @Override
+        public Ticket deserialize(JsonElement element, Type type, JsonDeserializationContext context) {
+            JsonObject object = element.getAsJsonObject();
+            JsonElement creationDate = object.get("creationDate");
+            JsonElement price = object.get("price");
+            return Ticket.restore(object.get("id").getAsInt(),
+                    string(object.get("name")),
+                    context.deserialize(object.get("coordinates"), Coordinates.class),
+                    isNull(creationDate) ? null : LocalDate.parse(creationDate.getAsString()),
+                    isNull(price) ? null : price.getAsDouble(),
+                    object.get("discount").getAsDouble(),
+                    string(object.get("comment")),
+                    context.deserialize(object.get("type"), TicketType.class),
+                    context.deserialize(object.get("event"), Event.class),
+                    object.get("initialised").getAsBoolean());
+        }
+    }
+
+    /**
+     * Событие восстанавливается через {@link Event#restore}
+     */
+    private static class EventAdapter implements JsonSerializer<Event>, JsonDeserializer<Event> {
+        @Override
+        public JsonElement serialize(Event event, Type type, JsonSerializationContext context) {
+            JsonObject object = new JsonObject();
+            object.addProperty("id", event.getId());
+            object.addProperty("name", event.getName());
+            object.addProperty("ticketsCount", event.getTicketsCount());
+            object.add("eventType", context.serialize(event.getEventType()));
+            object.addProperty("initialised", event.isInitialised());
+            return object;
+        }
+
+        @Override
+        public Event deserialize(JsonElement element, Type type, JsonDeserializationContext context) {
+            JsonObject object = element.getAsJsonObject();
+            JsonElement ticketsCount = object.get("ticketsCount");
+            return Event.restore(object.get("id").getAsLong(),
+                    string(object.get("name")),
+                    isNull(ticketsCount) ? null : ticketsCount.getAsLong(),
+                    context.deserialize(object.get("eventType"), EventType.class),
+                    object.get("initialised").getAsBoolean());
+        }
+    }
+
+    private static class HistoryRecordAdapter implements JsonSerializer<HistoryRecord>, JsonDeserializer<HistoryRecord> {
+        @Override
+        public JsonElement serialize(HistoryRecord record, Type type, JsonSerializationContext context) {
+            JsonObject object = new JsonObject();
+            object.addProperty("word", record.getWord());
+            object.addProperty("launched", record.getLaunched().toString());
+            return object;
+        }
+
+        @Override
+        public HistoryRecord deserialize(JsonElement element, Type type, JsonDeserializationContext context) {
+            JsonObject object = element.getAsJsonObject();
+            return new HistoryRecord(string(object.get("word")), LocalTime.parse(object.get("launched").getAsString()));
+        }
+    }
+
+    private static boolean isNull(JsonElement element) {
+        return element == null || element.isJsonNull();
+    }
+
+    private static String string(JsonElement element) {
+        return isNull(element) ? null : element.getAsString();
+    }
+}
@@ -0,0 +1,192 @@
+package ru.jefremov.prog.common.serialisers;
+
+import ru.jefremov.prog.server.exceptions.SerialisationException;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Сериализатор одного подключения на основе стандартной сериализации Java. Поток объектов создаётся один раз
+ * на подключение, и каждое сообщение пишется в него после {@link ObjectOutputStream#reset()}, поэтому ссылки
+ * на объекты прошлых сообщений не удерживаются. Описания классов заменены номерами из собственной таблицы
+ * подключения, которую reset() не очищает: полное описание класса передаётся один раз за подключение.
+ * Сообщения должны читаться в том же порядке, в котором были записаны. Экземпляр нельзя делить между подключениями.
+ * @param <T> тип сериализуемых объектов
+ */
+public class ObjectStreamSerialiser<T> extends Serialiser<T> {
+    private static final int NEW_DESCRIPTOR = -1;
+    private final Class<T> type;
+    private final TargetOutputStream target = new TargetOutputStream();
+    private final SourceInputStream source = new SourceInputStream();
+    private DescriptorOutputStream output;
+    private DescriptorInputStream input;
+    /**
+     * Имена классов, описания которых уже отправлены, в порядке отправки
+     */
+    private final ArrayList<String> sent = new ArrayList<>();
+    private final HashMap<String, Integer> sentIndexes = new HashMap<>();
+    /**
+     * Описания классов, полученные от другой стороны, в порядке получения
+     */
+    private final ArrayList<ObjectStreamClass> received = new ArrayList<>();
+    /**
+     * Поток чтения рассинхронизирован после ошибки, дальнейшее чтение невозможно
+     */
+    private boolean broken;
+
+    /**
+     * Конструктор сериализатора
+     * @param type тип сериализуемых объектов, прочитанный объект другого типа отвергается
+     */
+    public ObjectStreamSerialiser(Class<T> type) {
+        this.type = type;
+    }
+
+    @Override
+    public synchronized void serialize(T object, OutputStream out) throws SerialisationException {
+        int known = sent.size();
+        boolean first = output == null;
+        target.out = out;
+        try {
+            if (first) {
+                output = new DescriptorOutputStream(target);
+            } else {
+                output.reset();
+            }
+            output.writeObject(object);
+            output.flush();
+            out.close();
+        } catch (IOException e) {
+            rollback(known, first);
+            throw new SerialisationException("Serialisation failed", e);
+        } finally {
+            target.out = null;
+        }
+    }
+
+    /**
+     * Отменяет последствия неудачной записи: другая сторона не получит частично записанное сообщение,
+     * поэтому описания классов из него и остаток внутреннего буфера потока отбрасываются
+     * @param known сколько описаний было отправлено до сообщения
+     * @param first было ли сообщение первым
+     */
+    private void rollback(int known, boolean first) {
+        target.out = OutputStream.nullOutputStream();
+        if (first) {
+            output = null;
+        } else {
+            try {
+                output.flush();
+            } catch (IOException ignored) {
+            }
+        }
+        while (sent.size() > known) {
+            sentIndexes.remove(sent.remove(sent.size() - 1));
+        }
+    }
+
+    @Override
+    public synchronized T deserialise(InputStream in) throws SerialisationException {
+        if (broken) throw new SerialisationException("Object stream is out of sync");
+        source.in = in;
+        try (in) {
+            if (input == null) input = new DescriptorInputStream(source);
+            Object object = input.readObject();
+            if (!type.isInstance(object)) throw new SerialisationException("Unexpected object type");
+            return type.cast(object);
+        } catch (IOException | ClassNotFoundException e) {
+            broken = true;
+            throw new SerialisationException("Serialisation failed", e);
+        } finally {
+            source.in = null;
+        }
+    }
+
+    private class DescriptorOutputStream extends ObjectOutputStream {
+        private DescriptorOutputStream(OutputStream out) throws IOException {
+            super(out);
+        }
+
+        @Override
+        protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+            Integer index = sentIndexes.get(desc.getName());
+            if (index != null) {
+                writeInt(index);
+                return;
+            }
+            writeInt(NEW_DESCRIPTOR);
+            writeUTF(desc.getName());
+            writeLong(desc.getSerialVersionUID());
+            sentIndexes.put(desc.getName(), sent.size());
+            sent.add(desc.getName());
+        }
+    }
+
+    private class DescriptorInputStream extends ObjectInputStream {
+        private DescriptorInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            int index = readInt();
+            if (index != NEW_DESCRIPTOR) {
+                if (index < 0 || index >= received.size()) throw new StreamCorruptedException("Unknown class descriptor " + index);
+                return received.get(index);
+            }
+            String name = readUTF();
+            long serialVersionUID = readLong();
+            ObjectStreamClass desc = ObjectStreamClass.lookupAny(Class.forName(name, false, ObjectStreamSerialiser.class.getClassLoader()));
+            if (desc.getSerialVersionUID() != serialVersionUID) {
+                throw new InvalidClassException(name, "serialVersionUID mismatch");
+            }
+            received.add(desc);
+            return desc;
+        }
+    }
+
+    /**
+     * Поток, направляющий запись в поток текущего сообщения. Закрытие потока объектов его не закрывает.
+     */
+    private static class TargetOutputStream extends OutputStream {
+        private OutputStream out;
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    /**
+     * Поток, читающий из потока текущего сообщения
+     */
+    private static class SourceInputStream extends InputStream {
+        private InputStream in;
+
+        @Override
+        public int read() throws IOException {
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return in.read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return in.available();
+        }
+    }
+}
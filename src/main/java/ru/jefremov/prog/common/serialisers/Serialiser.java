@@ -8,23 +8,30 @@ import java.io.*;
 public class Serialiser<T> {
 
     public byte[] serialize(T object) throws SerialisationException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        serialize(object, bos);
+        return bos.toByteArray();
+    }
 
-        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
-             ObjectOutputStream os = new ObjectOutputStream(bos);) {
+    public void serialize(T object, OutputStream out) throws SerialisationException {
+        try (ObjectOutputStream os = new ObjectOutputStream(out)) {
             os.writeObject(object);
-            return bos.toByteArray();
         } catch (IOException e) {
             throw new SerialisationException("Serialisation failed", e);
         }
-
     }
 
     public T deserialise(byte[] bytes) throws SerialisationException, ClassCastException {
-        try (ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
-             ObjectInputStream is = new ObjectInputStream(bis)) {
-            T deserialised = (T) is.readObject();
-            is.close();
-            return deserialised;
+        return deserialise(bytes, 0, bytes.length);
+    }
+
+    public T deserialise(byte[] bytes, int offset, int length) throws SerialisationException, ClassCastException {
+        return deserialise(new ByteArrayInputStream(bytes, offset, length));
+    }
+
+    public T deserialise(InputStream in) throws SerialisationException, ClassCastException {
+        try (ObjectInputStream is = new ObjectInputStream(in)) {
+            return (T) is.readObject();
         } catch (IOException | ClassNotFoundException e) {
             throw new SerialisationException("Serialisation failed", e);
         }
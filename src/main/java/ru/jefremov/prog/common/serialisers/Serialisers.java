@@ -8,10 +8,10 @@ import ru.jefremov.prog.common.network.Request;
 import ru.jefremov.prog.common.network.Response;
 
 public class Serialisers {
-    public static Serialiser<Ticket> ticketSerialiser = new Serialiser<>();
-    public static Serialiser<CommandState> stateSerialiser = new Serialiser<>();
-    public static Serialiser<CommandResult> resultSerialiser = new Serialiser<>();
-    public static Serialiser<HistoryRecord> historyRecordSerialiser = new Serialiser<>();
-    public static Serialiser<Request> requestSerialiser = new Serialiser<>();
-    public static Serialiser<Response> responseSerialiser = new Serialiser<>();
+    public static Serialiser<Ticket> ticketSerialiser = new BinarySerialiser<>(BinaryCodec::writeTicket, BinaryCodec::readTicket);
+    public static Serialiser<CommandState> stateSerialiser = new BinarySerialiser<>(BinaryCodec::writeState, BinaryCodec::readState);
+    public static Serialiser<CommandResult> resultSerialiser = new BinarySerialiser<>(BinaryCodec::writeResult, BinaryCodec::readResult);
+    public static Serialiser<HistoryRecord> historyRecordSerialiser = new BinarySerialiser<>(BinaryCodec::writeHistoryRecord, BinaryCodec::readHistoryRecord);
+    public static Serialiser<Request> requestSerialiser = new BinarySerialiser<>(BinaryCodec::writeRequest, BinaryCodec::readRequest);
+    public static Serialiser<Response> responseSerialiser = new BinarySerialiser<>(BinaryCodec::writeResponse, BinaryCodec::readResponse);
 }
@@ -0,0 +1,26 @@
+package ru.jefremov.prog.common.serialisers;
+
+import ru.jefremov.prog.common.network.Request;
+import ru.jefremov.prog.common.network.Response;
+
+/**
+ * Формат передачи запросов и ответов по TCP-подключению. Выбирается при рукопожатии.
+ */
+public interface WireCodec {
+    /**
+     * @return название формата, которым стороны обмениваются при рукопожатии
+     */
+    String getName();
+
+    /**
+     * Выдаёт сериализатор запросов для нового подключения. Сериализатор без состояния может быть общим.
+     * @return сериализатор
+     */
+    Serialiser<Request> requestSerialiser();
+
+    /**
+     * Выдаёт сериализатор ответов для нового подключения. Сериализатор без состояния может быть общим.
+     * @return сериализатор
+     */
+    Serialiser<Response> responseSerialiser();
+}
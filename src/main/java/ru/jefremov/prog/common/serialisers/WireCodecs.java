@@ -0,0 +1,123 @@
+package ru.jefremov.prog.common.serialisers;
+
+import ru.jefremov.prog.common.Printer;
+import ru.jefremov.prog.common.network.Handshake;
+import ru.jefremov.prog.common.network.Request;
+import ru.jefremov.prog.common.network.Response;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Известные форматы передачи и выбор формата при рукопожатии.
+ * Допустимые форматы задаются переменной окружения LAB5_WIRE_FORMAT через запятую в порядке предпочтения,
+ * по умолчанию допустимы все. Сжатие ответов отключается переменной LAB5_COMPRESSION=off.
+ * Сервер выбирает первый из предложенных клиентом форматов, допустимый для сервера.
+ */
+public class WireCodecs {
+    /**
+     * Компактный двоичный формат
+     */
+    public static final WireCodec binary = codec("binary", () -> Serialisers.requestSerialiser, () -> Serialisers.responseSerialiser);
+    /**
+     * Сериализация Java с постоянным потоком объектов на подключение
+     */
+    public static final WireCodec objectStream = codec("object-stream", () -> new ObjectStreamSerialiser<>(Request.class),
+            () -> new ObjectStreamSerialiser<>(Response.class));
+    /**
+     * Сериализация Java с отдельным потоком объектов на каждое сообщение
+     */
+    public static final WireCodec java = codec("java", Serialiser::new, Serialiser::new);
+    /**
+     * JSON, одна строка на сообщение. Предназначен для отладки.
+     */
+    public static final WireCodec json = codec("json", () -> JsonLinesSerialiser.requests, () -> JsonLinesSerialiser.responses);
+
+    private static final LinkedHashMap<String, WireCodec> codecs = new LinkedHashMap<>();
+
+    static {
+        for (WireCodec codec : new WireCodec[]{binary, objectStream, java, json}) {
+            codecs.put(codec.getName(), codec);
+        }
+    }
+
+    /**
+     * Форматы, допустимые на этой стороне, в порядке предпочтения
+     */
+    public static final String[] accepted = readAccepted();
+    /**
+     * Допускает ли эта сторона сжатие ответов
+     */
+    public static final boolean compression = !"off".equalsIgnoreCase(System.getenv("LAB5_COMPRESSION"));
+
+    /**
+     * Ищет формат по названию
+     * @param name название
+     * @return формат или null, если он неизвестен
+     */
+    public static WireCodec get(String name) {
+        return codecs.get(name);
+    }
+
+    /**
+     * Формирует предложение клиента
+     * @return рукопожатие
+     */
+    public static Handshake offer() {
+        return new Handshake(accepted, compression, null);
+    }
+
+    /**
+     * Выбирает формат по предложению клиента
+     * @param offer предложение клиента
+     * @return ответ сервера: выбранный формат либо отказ
+     */
+    public static Handshake answer(Handshake offer) {
+        List<String> own = Arrays.asList(accepted);
+        for (String name : offer.codecs) {
+            if (own.contains(name)) return new Handshake(new String[]{name}, offer.compression && compression, null);
+        }
+        return Handshake.refuse("No common wire format");
+    }
+
+    private static String[] readAccepted() {
+        String value = System.getenv("LAB5_WIRE_FORMAT");
+        if (value == null || value.isBlank()) return codecs.keySet().toArray(new String[0]);
+        ArrayList<String> names = new ArrayList<>();
+        for (String name : value.split(",")) {
+            name = name.trim().toLowerCase();
+            if (codecs.containsKey(name)) {
+                if (!names.contains(name)) names.add(name);
+            } else {
+                Printer.println("Unknown wire format ignored: " + name);
+            }
+        }
+        if (names.isEmpty()) {
+            Printer.println("Incorrect value of LAB5_WIRE_FORMAT, all wire formats are accepted");
+            return codecs.keySet().toArray(new String[0]);
+        }
+        return names.toArray(new String[0]);
+    }
+
+    private static WireCodec codec(String name, Supplier<Serialiser<Request>> requests, Supplier<Serialiser<Response>> responses) {
+        return new WireCodec() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public Serialiser<Request> requestSerialiser() {
+                return requests.get();
+            }
+
+            @Override
+            public Serialiser<Response> responseSerialiser() {
+                return responses.get();
+            }
+        };
+    }
+}
@@ -5,7 +5,9 @@ import ru.jefremov.prog.common.models.Ticket;
 import ru.jefremov.prog.server.exceptions.SavedCollectionInteractionException;
 import ru.jefremov.prog.server.exceptions.ServerLaunchException;
 import ru.jefremov.prog.server.managers.ServerAdministrator;
+import ru.jefremov.prog.server.network.BlockingServer;
 import ru.jefremov.prog.server.network.Server;
+import ru.jefremov.prog.server.network.Transport;
 
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
@@ -16,7 +18,7 @@ import java.util.LinkedHashSet;
 
 public class MainServer {
     public static int port = 6086;
-    public static Server server;
+    public static Transport server;
 
     public static void main(String[] args) {
         Printer.println("Server "+port);
@@ -52,14 +54,28 @@ public class MainServer {
 
         try {
             Printer.println("Server launched");
-            server = new Server(port,administrator);
+            server = openTransport(args.length > 0 ? args[0] : "selector", administrator);
             server.run();
-            administrator.save();
         } catch (ServerLaunchException e) {
             Printer.println("Failed to run server");
         } catch (Exception e) {
             Printer.println("Unexpected error");
+            administrator.save();
+        }
+    }
+
+    /**
+     * Создаёт транспорт сервера по названию режима
+     * @param mode режим: selector - один поток с селектором и пул рабочих потоков, blocking - поток на подключение
+     * @param administrator администратор
+     * @return транспорт
+     * @throws ServerLaunchException вызывается, если сервер не удалось запустить
+     */
+    private static Transport openTransport(String mode, ServerAdministrator administrator) throws ServerLaunchException {
+        if (mode.equals("blocking")) {
+            Printer.println("Thread-per-connection mode");
+            return new BlockingServer(port, administrator);
         }
-        administrator.save();
+        return new Server(port, administrator);
     }
 }
\ No newline at end of file
@@ -13,8 +13,12 @@ public abstract class ServerAbstractCommand<T extends CommandState, U extends Co
     public final ServerCommandManager manager;
     public final Storage storage;
     public final boolean serverOnly;
+    /**
+     * изменяет ли команда коллекцию; такие команды одного подключения исполняются строго по порядку
+     */
+    public final boolean mutating;
 
-    public ServerAbstractCommand(String word, String description, ServerCommandManager manager, boolean serverOnly) {
+    public ServerAbstractCommand(String word, String description, ServerCommandManager manager, boolean serverOnly, boolean mutating) {
         super(word, description);
         if (manager==null) throw new IllegalArgumentException("Command manager must not be null");
         manager.addCommand(this);
@@ -22,6 +26,10 @@ public abstract class ServerAbstractCommand<T extends CommandState, U extends Co
         this.administrator = manager.administrator;
         this.storage = manager.getStorage();
         this.serverOnly = serverOnly;
+        this.mutating = mutating;
+    }
+    public ServerAbstractCommand(String word, String description, ServerCommandManager manager, boolean serverOnly) {
+        this(word,description,manager,serverOnly,true);
     }
     public ServerAbstractCommand(String word, String description, ServerCommandManager manager) {
         this(word,description,manager,false);
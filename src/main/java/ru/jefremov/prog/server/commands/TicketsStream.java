@@ -0,0 +1,83 @@
+package ru.jefremov.prog.server.commands;
+
+import ru.jefremov.prog.common.commands.results.CommandResult;
+import ru.jefremov.prog.common.commands.results.TicketsArrayResult;
+import ru.jefremov.prog.common.commands.results.TicketsChunkResult;
+import ru.jefremov.prog.common.models.Ticket;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Результат команды, выдающий билеты частями по мере обхода. Целиком не сериализуется:
+ * сервер отправляет каждую часть отдельным ответом на тот же запрос.
+ * Билеты не копируются заранее: каждая часть запрашивается у источника отдельно, начиная после последнего
+ * выданного билета, поэтому изменения коллекции между частями отражаются в следующих частях.
+ */
+public class TicketsStream extends CommandResult {
+    private static final long serialVersionUID = 1L;
+    public static final int CHUNK_SIZE = 1000;
+    private final transient Source source;
+    private transient Ticket last;
+    private boolean finished;
+    private int index;
+
+    /**
+     * Источник билетов, выдающий их по частям в неизменном порядке
+     */
+    @FunctionalInterface
+    public interface Source {
+        /**
+         * Выдаёт часть билетов
+         * @param after билет, после которого начинается часть, или null для начала
+         * @param limit наибольший размер части
+         * @return билеты в порядке выдачи
+         */
+        List<Ticket> next(Ticket after, int limit);
+    }
+
+    /**
+     * Конструктор потока билетов
+     * @param source источник билетов
+     */
+    public TicketsStream(Source source) {
+        if (source==null) throw new IllegalArgumentException("Source must not be null");
+        this.source = source;
+    }
+
+    /**
+     * Выдаёт очередную часть билетов
+     * @return часть билетов
+     */
+    public synchronized TicketsChunkResult nextChunk() {
+        List<Ticket> chunk = slice();
+        return new TicketsChunkResult(chunk.toArray(new Ticket[0]), index++, finished);
+    }
+
+    /**
+     * Собирает оставшиеся билеты в один результат, когда ответ нельзя отправить частями
+     * @return результат со всеми оставшимися билетами
+     */
+    public synchronized TicketsArrayResult collect() {
+        List<Ticket> rest = new ArrayList<>();
+        while (!finished) {
+            rest.addAll(slice());
+        }
+        return new TicketsArrayResult(rest.toArray(new Ticket[0]));
+    }
+
+    /**
+     * Запрашивает у источника на один билет больше части, чтобы узнать, последняя ли она
+     */
+    private List<Ticket> slice() {
+        if (finished) return new ArrayList<>();
+        List<Ticket> chunk = source.next(last, CHUNK_SIZE + 1);
+        if (chunk.size() > CHUNK_SIZE) {
+            chunk = chunk.subList(0, CHUNK_SIZE);
+        } else {
+            finished = true;
+        }
+        if (!chunk.isEmpty()) last = chunk.get(chunk.size() - 1);
+        return chunk;
+    }
+}
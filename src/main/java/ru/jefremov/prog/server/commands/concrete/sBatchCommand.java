@@ -0,0 +1,20 @@
+package ru.jefremov.prog.server.commands.concrete;
+
+import ru.jefremov.prog.common.commands.results.BatchResult;
+import ru.jefremov.prog.common.commands.states.BatchState;
+import ru.jefremov.prog.server.commands.ServerAbstractCommand;
+import ru.jefremov.prog.server.managers.ServerCommandManager;
+
+/**
+ * Команда, исполняющая пакет команд за один запрос.
+ */
+public class sBatchCommand extends ServerAbstractCommand<BatchState, BatchResult> {
+    public sBatchCommand(String word, String description, ServerCommandManager manager) {
+        super(word, description, manager);
+    }
+
+    @Override
+    protected BatchResult execute(BatchState state) {
+        return manager.launchBatch(state);
+    }
+}
@@ -7,7 +7,7 @@ import ru.jefremov.prog.server.managers.ServerCommandManager;
 
 public class sExitCommand extends ServerAbstractCommand<CommandState, CommandResult> {
     public sExitCommand(String word, String description, ServerCommandManager manager) {
-        super(word, description, manager);
+        super(word, description, manager, false, false);
     }
 
     @Override
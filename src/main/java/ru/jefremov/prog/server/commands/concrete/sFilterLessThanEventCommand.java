@@ -11,7 +11,7 @@ import java.util.List;
 
 public class sFilterLessThanEventCommand extends ServerAbstractCommand<EventArgumentedState, TicketsArrayResult>{
     public sFilterLessThanEventCommand(String word, String description, ServerCommandManager manager) {
-        super(word, description, manager);
+        super(word, description, manager, false, false);
     }
 
     @Override
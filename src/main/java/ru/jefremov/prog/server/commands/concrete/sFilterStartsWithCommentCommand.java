@@ -11,7 +11,7 @@ import java.util.List;
 public class sFilterStartsWithCommentCommand extends ServerAbstractCommand<StringArgumentedState, TicketsArrayResult>{
 
     public sFilterStartsWithCommentCommand(String word, String description, ServerCommandManager manager) {
-        super(word, description, manager);
+        super(word, description, manager, false, false);
     }
 
     @Override
@@ -7,7 +7,7 @@ import ru.jefremov.prog.server.managers.ServerCommandManager;
 
 public class sHelpCommand extends ServerAbstractCommand<CommandState, CommandsArrayResult>{
     public sHelpCommand(String word, String description, ServerCommandManager manager) {
-        super(word, description, manager);
+        super(word, description, manager, false, false);
     }
 
     @Override
@@ -7,7 +7,7 @@ import ru.jefremov.prog.server.managers.ServerCommandManager;
 
 public class sInfoCommand extends ServerAbstractCommand<CommandState, CollectionInfoResult>{
     public sInfoCommand(String word, String description, ServerCommandManager manager) {
-        super(word, description, manager);
+        super(word, description, manager, false, false);
     }
 
     @Override
@@ -0,0 +1,20 @@
+package ru.jefremov.prog.server.commands.concrete;
+
+import ru.jefremov.prog.common.commands.results.ScriptSummaryResult;
+import ru.jefremov.prog.common.commands.states.ScriptState;
+import ru.jefremov.prog.server.commands.ServerAbstractCommand;
+import ru.jefremov.prog.server.managers.ServerCommandManager;
+
+/**
+ * Команда, исполняющая загруженный клиентом скрипт целиком на сервере.
+ */
+public class sUploadScriptCommand extends ServerAbstractCommand<ScriptState, ScriptSummaryResult> {
+    public sUploadScriptCommand(String word, String description, ServerCommandManager manager) {
+        super(word, description, manager);
+    }
+
+    @Override
+    protected ScriptSummaryResult execute(ScriptState state) {
+        return manager.launchScript(state);
+    }
+}
@@ -0,0 +1,60 @@
+package ru.jefremov.prog.server.managers;
+
+import ru.jefremov.prog.common.models.Ticket;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Индекс билетов по комментарию. Комментарии хранятся в упорядоченном словаре, поэтому все комментарии
+ * с заданным началом занимают в нём один непрерывный диапазон. Билеты с одинаковым комментарием хранятся вместе.
+ */
+class CommentIndex {
+    private final TreeMap<String, HashSet<Ticket>> comments = new TreeMap<>();
+
+    void add(Ticket ticket) {
+        comments.computeIfAbsent(ticket.getComment(), comment -> new HashSet<>()).add(ticket);
+    }
+
+    /**
+     * Удаляет билет. Комментарий билета не должен меняться, пока билет находится в индексе.
+     * @param ticket билет
+     */
+    void remove(Ticket ticket) {
+        HashSet<Ticket> tickets = comments.get(ticket.getComment());
+        if (tickets != null && tickets.remove(ticket) && tickets.isEmpty()) comments.remove(ticket.getComment());
+    }
+
+    void clear() {
+        comments.clear();
+    }
+
+    /**
+     * Билеты, чей комментарий начинается с заданной строки
+     * @param prefix начало комментария
+     * @return билеты в порядке комментариев
+     */
+    List<Ticket> startingWith(String prefix) {
+        String end = successor(prefix);
+        SortedMap<String, HashSet<Ticket>> range = (end == null ? comments.tailMap(prefix) : comments.subMap(prefix, end));
+        List<Ticket> tickets = new ArrayList<>();
+        range.values().forEach(tickets::addAll);
+        return tickets;
+    }
+
+    /**
+     * Наименьшая строка, которая больше всех строк с заданным началом
+     * @param prefix начало строк
+     * @return строка или null, если такой строки нет
+     */
+    private static String successor(String prefix) {
+        for (int i = prefix.length() - 1; i >= 0; i--) {
+            char c = prefix.charAt(i);
+            if (c != Character.MAX_VALUE) return prefix.substring(0, i) + (char) (c + 1);
+        }
+        return null;
+    }
+}
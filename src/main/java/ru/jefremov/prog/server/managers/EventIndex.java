@@ -0,0 +1,45 @@
+package ru.jefremov.prog.server.managers;
+
+import ru.jefremov.prog.common.models.Event;
+import ru.jefremov.prog.common.models.Ticket;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Индекс билетов по событию в естественном порядке событий: тип, название, количество билетов, id.
+ * Билеты одного события хранятся вместе под одним ключом.
+ */
+class EventIndex {
+    private final TreeMap<Event, HashSet<Ticket>> events = new TreeMap<>();
+
+    void add(Ticket ticket) {
+        events.computeIfAbsent(ticket.getEvent(), event -> new HashSet<>()).add(ticket);
+    }
+
+    /**
+     * Удаляет билет. Событие билета не должно меняться, пока билет находится в индексе.
+     * @param ticket билет
+     */
+    void remove(Ticket ticket) {
+        HashSet<Ticket> tickets = events.get(ticket.getEvent());
+        if (tickets != null && tickets.remove(ticket) && tickets.isEmpty()) events.remove(ticket.getEvent());
+    }
+
+    void clear() {
+        events.clear();
+    }
+
+    /**
+     * Билеты, чьё событие меньше заданного
+     * @param event заданное событие
+     * @return билеты в порядке событий
+     */
+    List<Ticket> lessThan(Event event) {
+        List<Ticket> tickets = new ArrayList<>();
+        events.headMap(event, false).values().forEach(tickets::addAll);
+        return tickets;
+    }
+}
@@ -3,12 +3,17 @@ package ru.jefremov.prog.server.managers;
 
 import ru.jefremov.prog.common.Printer;
 import ru.jefremov.prog.common.commands.HistoryRecord;
+import ru.jefremov.prog.common.commands.results.BatchResult;
 import ru.jefremov.prog.common.commands.results.CommandResult;
+import ru.jefremov.prog.common.commands.results.ScriptSummaryResult;
+import ru.jefremov.prog.common.commands.states.BatchState;
 import ru.jefremov.prog.common.commands.states.CommandState;
+import ru.jefremov.prog.common.commands.states.ScriptState;
 import ru.jefremov.prog.common.exceptions.ExitInterruptionException;
 import ru.jefremov.prog.common.exceptions.command.CommandLaunchException;
 import ru.jefremov.prog.common.managers.CommandManager;
 import ru.jefremov.prog.server.commands.ServerAbstractCommand;
+import ru.jefremov.prog.server.commands.TicketsStream;
 import ru.jefremov.prog.server.commands.concrete.*;
 
 import java.util.ArrayList;
@@ -21,6 +26,10 @@ public class ServerCommandManager extends CommandManager<ServerAbstractCommand<?
     private final Storage storage;
     public final ServerAdministrator administrator;
     private final ArrayList<HistoryRecord> history = new ArrayList<>();
+    /**
+     * Пересекла ли история очередную пятую запись во время исполняемого пакета. Доступ только под блокировкой менеджера.
+     */
+    private boolean batchSaveDue;
     public static final CommandState blankState = new CommandState();
     /**
      * Конструктор для менеджера комманд
@@ -47,6 +56,8 @@ public class ServerCommandManager extends CommandManager<ServerAbstractCommand<?
         String filterLessThanEventDescription = "Вывести элементы, значение поля event которых меньше заданного";
         String printDescendingDescription = "Вывести элементы коллекции в порядке убывания";
         String saveDescription = "Сохранить коллекцию в файл";
+        String batchDescription = "Исполнить пакет команд за один запрос";
+        String uploadScriptDescription = "Исполнить скрипт из указанного файла на сервере, получив только сводку";
 
         new sAddCommand("add",addDescription,this);
         new sUpdateCommand("update",updateDescription,this);
@@ -64,6 +75,8 @@ public class ServerCommandManager extends CommandManager<ServerAbstractCommand<?
         new sFilterLessThanEventCommand("filter_less_than_event", filterLessThanEventDescription,this);
         new sPrintDescendingCommand("print_descending",printDescendingDescription,this);
         new sSaveCommand("save",saveDescription, this);
+        new sBatchCommand("batch", batchDescription, this);
+        new sUploadScriptCommand("upload_script", uploadScriptDescription, this);
         }
 
     /**
@@ -81,35 +94,144 @@ public class ServerCommandManager extends CommandManager<ServerAbstractCommand<?
      * @throws CommandLaunchException вызывается в случае проблем с запуском команды
      * @throws ExitInterruptionException вызывается в случае завершения программы без сохранения
      */
-    public void launchCommand(String word, String line) throws CommandLaunchException, ExitInterruptionException{
+    public synchronized void launchCommand(String word, String line) throws CommandLaunchException, ExitInterruptionException{
         ServerAbstractCommand<?,?> command = getCommand(word);
         if (command==null) {
             throw new CommandLaunchException("Command not found: "+word);
         }
-        history.add(new HistoryRecord(word));
-        if (history.size()%5==0) launchCommand("save",blankState);
+        if (record(word)) launchCommand("save",blankState);
     }
 
+    /**
+     * Запуск команды из состояния. Вызывается рабочими потоками сервера. Неизменяющие команды исполняются
+     * параллельно, полагаясь на блокировку хранилища, а изменяющие, пакеты и сохранение - последовательно,
+     * под блокировкой менеджера.
+     * @param word ключевое слово команды
+     * @param state состояние команды
+     * @return результат команды
+     * @throws CommandLaunchException вызывается в случае проблем с запуском команды
+     */
     public CommandResult launchCommand(String word, CommandState state) throws CommandLaunchException {
+        if (isMutating(word)) return launchExclusive(word, state);
+        CommandResult result = execute(word, state);
+        if (record(word)) launchExclusive("save",blankState);
+        return result;
+    }
+
+    /**
+     * Исполняет команду под блокировкой менеджера и сохраняет коллекцию, если очередную пятую запись истории
+     * сделала она сама или одна из команд её пакета. Сохранение не вызывает повторного автосохранения.
+     */
+    private synchronized CommandResult launchExclusive(String word, CommandState state) throws CommandLaunchException {
+        batchSaveDue = false;
+        CommandResult result = execute(word, state);
+        boolean due = record(word) || batchSaveDue;
+        batchSaveDue = false;
+        if (due && !"save".equals(word)) launchExclusive("save",blankState);
+        return result;
+    }
+
+    /**
+     * Исполняет команды пакета подряд, не отпуская менеджер и удерживая одну исключительную блокировку хранилища,
+     * поэтому другие потоки видят пакет только целиком. Автосохранение выполняется не после отдельных команд,
+     * а не более одного раза после всего пакета. Ошибка команды не прерывает исполнение остальных.
+     * @param state пакет команд
+     * @return результаты команд
+     */
+    public synchronized BatchResult launchBatch(BatchState state) {
+        CommandResult[] results = new CommandResult[state.words.length];
+        String[] errors = new String[state.words.length];
+        storage.lockBatch();
+        try {
+            for (int i = 0; i < state.words.length; i++) {
+                try {
+                    results[i] = executeEntry(state.words[i], state.states[i]);
+                    if (results[i] instanceof TicketsStream) results[i] = ((TicketsStream) results[i]).collect();
+                } catch (CommandLaunchException | ClassCastException e) {
+                    errors[i] = e.getMessage();
+                }
+            }
+        } finally {
+            storage.unlockBatch();
+        }
+        return new BatchResult(results, errors);
+    }
+
+    /**
+     * Исполняет часть загруженного скрипта так же, как пакет, но вместо результатов команд возвращает сводку
+     * @param state часть скрипта
+     * @return сводка
+     */
+    public synchronized ScriptSummaryResult launchScript(ScriptState state) {
+        ArrayList<Integer> failed = new ArrayList<>();
+        ArrayList<String> errors = new ArrayList<>();
+        storage.lockBatch();
+        try {
+            for (int i = 0; i < state.words.length; i++) {
+                try {
+                    executeEntry(state.words[i], state.states[i]);
+                } catch (CommandLaunchException | ClassCastException e) {
+                    failed.add(state.offset + i);
+                    errors.add(e.getMessage());
+                }
+            }
+        } finally {
+            storage.unlockBatch();
+        }
+        return new ScriptSummaryResult(state.words.length - failed.size(),
+                failed.stream().mapToInt(Integer::intValue).toArray(), errors.toArray(new String[0]));
+    }
+
+    private CommandResult executeEntry(String word, CommandState state) throws CommandLaunchException {
+        if ("batch".equals(word) || "upload_script".equals(word)) {
+            throw new CommandLaunchException("Nested batches are not allowed");
+        }
+        CommandResult result = execute(word, state);
+        if (record(word)) batchSaveDue = true;
+        return result;
+    }
+
+    private CommandResult execute(String word, CommandState state) throws CommandLaunchException {
         ServerAbstractCommand<?,?> command = getCommand(word);
         if (command==null) {
             throw new CommandLaunchException("Command not found: "+word);
         }
-        CommandResult result = command.launch(state);
-        history.add(new HistoryRecord(word));
-        if (history.size()%5==0) launchCommand("save",blankState);
-        return result;
+        return command.launch(state);
+    }
+
+    /**
+     * Добавляет команду в историю
+     * @param word ключевое слово команды
+     * @return стала ли запись очередной пятой, то есть должен ли вызвавший сохранить коллекцию
+     */
+    private boolean record(String word) {
+        synchronized (history) {
+            history.add(new HistoryRecord(word));
+            return history.size()%5==0;
+        }
     }
 
 
+    /**
+     * Проверяет, изменяет ли команда коллекцию. Неизвестные команды считаются изменяющими.
+     * @param word ключевое слово команды
+     * @return изменяет ли команда коллекцию
+     */
+    public boolean isMutating(String word) {
+        ServerAbstractCommand<?,?> command = (word==null ? null : getCommand(word));
+        return command==null || command.mutating;
+    }
+
     public HistoryRecord[] getHistory() {
-        if (history.size()==0) {
-            Printer.println("The history does not contain any successfully executed commands");
-            return null;
-        } else {
-            var lastRecords = history.subList(Math.max(history.size() - 5, 0), history.size());
-            lastRecords.forEach(Printer::println);
-            return lastRecords.toArray(HistoryRecord[]::new);
+        synchronized (history) {
+            if (history.size()==0) {
+                Printer.println("The history does not contain any successfully executed commands");
+                return null;
+            } else {
+                var lastRecords = history.subList(Math.max(history.size() - 5, 0), history.size());
+                lastRecords.forEach(Printer::println);
+                return lastRecords.toArray(HistoryRecord[]::new);
+            }
         }
     }
 
@@ -8,18 +8,41 @@ import ru.jefremov.prog.common.models.validation.AbstractTicketValidator;
 
 import java.time.LocalDate;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Stream;
 
 /**
  * Класс для хранилища, обеспечивающего ограниченный доступ к коллекции.
  * Обеспечивает корректность хранящихся данных и предоставляет удобные средства для управления коллекцией.
+ * Безопасно для использования из нескольких потоков: чтения выполняются параллельно под общей блокировкой,
+ * изменения - по одному под исключительной. Выдаваемые билеты - сами элементы коллекции, а не копии, поэтому
+ * билеты в коллекции не изменяются: обновление заменяет билет новым.
  */
 public class Storage {
     private LinkedHashSet<Ticket> collection;
+    /**
+     * Индекс элементов коллекции по идентификатору
+     */
+    private final TicketIdIndex ids = new TicketIdIndex();
+    /**
+     * Элементы коллекции в естественном порядке билетов
+     */
+    private final TreeSet<Ticket> ordered = new TreeSet<>();
+    /**
+     * Индекс элементов коллекции по комментарию
+     */
+    private final CommentIndex comments = new CommentIndex();
+    /**
+     * Индекс элементов коллекции по событию
+     */
+    private final EventIndex events = new EventIndex();
     private final AbstractTicketValidator ticketValidator;
     private final ServerAdministrator administrator;
     private LocalDate initDate;
+    /**
+     * Блокировка коллекции и всех её индексов
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 
     /**
      * Конструктор для хранилища
@@ -40,7 +63,12 @@ public class Storage {
      * @return копия коллекции
      */
     public LinkedHashSet<Ticket> getCollectionCopy() {
-        return new LinkedHashSet<>(collection);
+        lock.readLock().lock();
+        try {
+            return new LinkedHashSet<>(collection);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -57,17 +85,25 @@ public class Storage {
      * @return подошла ли она для загрузки
      */
     public boolean loadCollection(LinkedHashSet<Ticket> collection) {
-        if (collection==null) {
-            this.collection = new LinkedHashSet<>();
-            initDate = LocalDate.now();
-            return true;
-        }
-        if (checkCollection(collection)) {
-            this.collection = new LinkedHashSet<>(collection);
-            initDate = LocalDate.now();
-            return true;
+        lock.writeLock().lock();
+        try {
+            if (collection==null) {
+                this.collection = new LinkedHashSet<>();
+                clearIndexes();
+                initDate = LocalDate.now();
+                return true;
+            }
+            if (checkCollection(collection)) {
+                this.collection = new LinkedHashSet<>(collection);
+                clearIndexes();
+                this.collection.forEach(this::index);
+                initDate = LocalDate.now();
+                return true;
+            }
+            return false;
+        } finally {
+            lock.writeLock().unlock();
         }
-        return false;
     }
 
     /**
@@ -77,7 +113,7 @@ public class Storage {
      */
     public boolean checkCollection(LinkedHashSet<Ticket> collection) {
         if (collection==null) return false;
-        return collection.stream().allMatch(ticketValidator::checkTicket);
+        return collection.stream().allMatch(ticketValidator::checkTicket) && findDuplicateId(collection)==null;
     }
 
     /**
@@ -90,28 +126,91 @@ public class Storage {
             return null;
         }
         Optional<String> verdict = collection.stream().map(ticketValidator::reviewTicket).filter(comment->comment!=null).findAny();
-        return verdict.orElse(null);
+        if (verdict.isPresent()) return verdict.get();
+        Ticket duplicate = findDuplicateId(collection);
+        return (duplicate==null ? null : "Id "+duplicate.getId()+" is not unique");
     }
 
     /**
-     * Добавление билета. Отвергает неподходящие элементы.
+     * Ищет билет, чей идентификатор уже встречался в коллекции
+     * @param collection коллекция
+     * @return первый повторный билет или null, если идентификаторы уникальны
+     */
+    private Ticket findDuplicateId(LinkedHashSet<Ticket> collection) {
+        TicketIdIndex seen = new TicketIdIndex();
+        return collection.stream().filter(ticket -> ticket!=null && !seen.add(ticket)).findFirst().orElse(null);
+    }
+
+    /**
+     * Добавление билета. Отвергает неподходящие элементы и билеты с уже занятым id.
      * @param ticket билет
      * @return Подошёл ли он для добавления, или нет.
      */
     public boolean addTicket(Ticket ticket) {
-        Optional<Ticket> checked = Stream.of(ticket).filter(ticket1->ticketValidator.checkTicket(ticket1))
-                .findFirst();
-        return (checked.isPresent() && collection.add(checked.get()));
+        if (!ticketValidator.checkTicket(ticket)) return false;
+        lock.writeLock().lock();
+        try {
+            if (ids.contains(ticket.getId()) || !collection.add(ticket)) return false;
+            index(ticket);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Захватывает исключительную блокировку хранилища на время исполнения пакета команд, чтобы другие потоки
+     * не увидели пакет исполненным наполовину. Блокировка повторно входимая: методы хранилища, вызываемые
+     * командами пакета, исполняются в том же потоке без ожидания.
+     * Каждый вызов должен завершаться вызовом {@link #unlockBatch()}.
+     */
+    public void lockBatch() {
+        lock.writeLock().lock();
+    }
+
+    /**
+     * Освобождает блокировку, захваченную {@link #lockBatch()}
+     */
+    public void unlockBatch() {
+        lock.writeLock().unlock();
+    }
+
+    /**
+     * Добавляет элемент коллекции во все индексы
+     * @param ticket билет
+     */
+    private void index(Ticket ticket) {
+        ids.add(ticket);
+        ordered.add(ticket);
+        comments.add(ticket);
+        events.add(ticket);
     }
 
     /**
-     * Получение билета по id
+     * Удаляет элемент коллекции из всех индексов
+     * @param ticket билет
+     */
+    private void unindex(Ticket ticket) {
+        ids.remove(ticket.getId());
+        ordered.remove(ticket);
+        comments.remove(ticket);
+        events.remove(ticket);
+    }
+
+    private void clearIndexes() {
+        ids.clear();
+        ordered.clear();
+        comments.clear();
+        events.clear();
+    }
+
+    /**
+     * Получение билета по id. Вызывается под блокировкой.
      * @param id id
      * @return билет с соответствующим идентификатором
      */
     private Ticket getById(int id) {
-        Optional<Ticket> ticket = collection.stream().filter(ticket1 -> ticket1.getId()==id).findFirst();
-        return ticket.orElse(null);
+        return ids.get(id);
     }
 
     /**
@@ -120,25 +219,38 @@ public class Storage {
      * @return результат проверки
      */
     public boolean hasId(int id) {
-        return (getById(id)!=null);
+        lock.readLock().lock();
+        try {
+            return (getById(id)!=null);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
-     * Обновляет билет с нужным id, копируя поля у другого билета. Другой билет может быть отвергнут.
+     * Обновляет билет с нужным id, заменяя его копией с полями другого билета. Прежний билет не меняется,
+     * поэтому уже выданные читателям билеты остаются целыми. Другой билет может быть отвергнут.
      * @param id id
      * @param other другой билет
      * @return Состоялось ли обновление (подошёл ли другой билет, или нет)
      */
     public boolean updateById(int id, Ticket other) {
-        Ticket ticket = getById(id);
-        //if (Stream.of(id).map(id2->getById(id2)).allMatch(ticket1 -> ticket1!=null)) return false;
-        if (ticket==null) return false;
-        if (Stream.of(other).anyMatch(other2 -> ticketValidator.checkTicket(other2))) {
+        if (!ticketValidator.checkTicket(other)) return false;
+        lock.writeLock().lock();
+        try {
+            Ticket ticket = getById(id);
+            if (ticket==null) return false;
+            Ticket updated = ticket.updated(other);
             collection.remove(ticket);
-            ticket.update(other);
-            return collection.add(ticket);
+            unindex(ticket);
+            if (collection.add(updated)) {
+                index(updated);
+                return true;
+            }
+            return false;
+        } finally {
+            lock.writeLock().unlock();
         }
-        return false;
     }
 
     /**
@@ -147,15 +259,28 @@ public class Storage {
      * @return изменилась ли коллекция
      */
     public boolean removeById(int id) {
-        Optional<Ticket> matching = Stream.of(id).map(id1 -> getById(id1)).filter(ticket -> ticket!=null).findFirst();
-        return (matching.isPresent()&&collection.remove(matching.get()));
+        lock.writeLock().lock();
+        try {
+            Ticket removed = getById(id);
+            if (removed==null) return false;
+            unindex(removed);
+            return collection.remove(removed);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
      * Очищает коллекцию
      */
     public void clear() {
-        collection.clear();
+        lock.writeLock().lock();
+        try {
+            collection.clear();
+            clearIndexes();
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
@@ -163,15 +288,25 @@ public class Storage {
      * @return размер коллекции
      */
     public int size() {
-        return collection.size();
+        lock.readLock().lock();
+        try {
+            return collection.size();
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
      * Выводит информацию о коллекции.
      */
     public String printInfo() {
-        return (collection.getClass().getName()+" collection with "+size()+" elements.\n"+
-                "Initialisation date: "+ initDate+"\nThe collection is linked to a file: "+ administrator.collectionFile);
+        lock.readLock().lock();
+        try {
+            return (collection.getClass().getName()+" collection with "+size()+" elements.\n"+
+                    "Initialisation date: "+ initDate+"\nThe collection is linked to a file: "+ administrator.collectionFile);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -180,8 +315,13 @@ public class Storage {
      * @return добавлен ли билет (прошёл ли он проверку)
      */
     public boolean addIfMin(Ticket ticket) {
-        Optional<Ticket> checked = Stream.of(ticket).filter(ticket1 -> collection.isEmpty() || Collections.min(collection).compareTo(ticket1)>0).findFirst();
-        return (checked.isPresent()&&addTicket(checked.get()));
+        lock.writeLock().lock();
+        try {
+            Optional<Ticket> checked = Stream.of(ticket).filter(ticket1 -> ordered.isEmpty() || ordered.first().compareTo(ticket1)>0).findFirst();
+            return (checked.isPresent()&&addTicket(checked.get()));
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
@@ -190,11 +330,22 @@ public class Storage {
      * @return количество удалённых элементов
      */
     public int removeLower(Ticket ticket) {
-        int sizeBefore = collection.size();
-        Collection<Ticket> collected = collection.stream().filter(ticket1 -> ticket1.compareTo(ticket)<0).toList();
-        collected.stream().forEach(collection::remove); //collection.removeAll(collected);
-        int sizeAfter = collection.size();
-        return sizeAfter-sizeBefore;
+        lock.writeLock().lock();
+        try {
+            int sizeBefore = collection.size();
+            SortedSet<Ticket> lower = ordered.headSet(ticket);
+            lower.forEach(ticket1 -> {
+                collection.remove(ticket1);
+                ids.remove(ticket1.getId());
+                comments.remove(ticket1);
+                events.remove(ticket1);
+            });
+            lower.clear();
+            int sizeAfter = collection.size();
+            return sizeAfter-sizeBefore;
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
@@ -203,7 +354,12 @@ public class Storage {
      */
     public List<Ticket> printFilterStartsWithComment(String comment) {
         if (!ticketValidator.checkComment(comment)) return null;
-        return collection.stream().filter(ticket->ticket.getComment()!=null && ticket.getComment().startsWith(comment)).collect(Collectors.toList());
+        lock.readLock().lock();
+        try {
+            return comments.startingWith(comment);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -212,19 +368,51 @@ public class Storage {
      */
     public List<Ticket> printFilterLessThanEvent(Event event) {
         if (!ticketValidator.checkEvent(event)) return null;
-        return collection.stream().filter(ticket->ticket.getEvent().compareTo(event)<0).collect(Collectors.toList());
+        lock.readLock().lock();
+        try {
+            return events.lessThan(event);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
-     * Выводит коллекцию в порядке убывания
-     * @return есть ли в коллекции элементы.
+     * Выводит часть коллекции в порядке возрастания. Вся коллекция выводится по частям: каждая следующая
+     * начинается после последнего билета предыдущей, поэтому копировать коллекцию целиком не нужно.
+     * @param after билет, после которого начинается часть, или null для начала коллекции
+     * @param limit наибольший размер части
+     * @return упорядоченные элементы
      */
-    public List<Ticket> printDescending() {
-        if (collection.isEmpty()) return null;
-                //.sorted((ticket1,ticket2)->ticket2.compareTo(ticket1));
-        return collection.stream().collect(Collectors.toList());
+    public List<Ticket> printAscending(Ticket after, int limit) {
+        lock.readLock().lock();
+        try {
+            return slice(after==null ? ordered : ordered.tailSet(after, false), limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
 
-        //Если нет требований к лямбда-выражениям, то заменить на Comparator.reverseOrder
+    /**
+     * Выводит часть коллекции в порядке убывания, аналогично {@link #printAscending(Ticket, int)}
+     * @param after билет, после которого начинается часть, или null для начала коллекции
+     * @param limit наибольший размер части
+     * @return упорядоченные элементы
+     */
+    public List<Ticket> printDescending(Ticket after, int limit) {
+        lock.readLock().lock();
+        try {
+            return slice(after==null ? ordered.descendingSet() : ordered.headSet(after, false).descendingSet(), limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
 
+    private static List<Ticket> slice(NavigableSet<Ticket> tickets, int limit) {
+        List<Ticket> slice = new ArrayList<>();
+        for (Ticket ticket : tickets) {
+            if (slice.size() >= limit) break;
+            slice.add(ticket);
+        }
+        return slice;
     }
 }
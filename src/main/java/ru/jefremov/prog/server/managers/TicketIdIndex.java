@@ -0,0 +1,111 @@
+package ru.jefremov.prog.server.managers;
+
+import ru.jefremov.prog.common.models.Ticket;
+
+/**
+ * Индекс билетов по идентификатору: хеш-таблица с открытой адресацией и линейным пробированием.
+ * Ключи хранятся в массиве int без упаковки, пустая ячейка - ячейка без билета.
+ * При удалении следующие ячейки цепочки сдвигаются назад, поэтому надгробия не нужны.
+ */
+class TicketIdIndex {
+    private static final int MIN_CAPACITY = 16;
+    private int[] keys;
+    private Ticket[] values;
+    private int size;
+
+    TicketIdIndex() {
+        clear();
+    }
+
+    /**
+     * Получение билета по id
+     * @param id id
+     * @return билет или null, если его нет
+     */
+    Ticket get(int id) {
+        int mask = keys.length - 1;
+        for (int i = slot(id, mask); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == id) return values[i];
+        }
+        return null;
+    }
+
+    boolean contains(int id) {
+        return get(id) != null;
+    }
+
+    /**
+     * Добавляет билет, если билета с таким id ещё нет
+     * @param ticket билет
+     * @return добавлен ли билет
+     */
+    boolean add(Ticket ticket) {
+        int id = ticket.getId();
+        int mask = keys.length - 1;
+        int i = slot(id, mask);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == id) return false;
+        }
+        keys[i] = id;
+        values[i] = ticket;
+        if (++size * 3 > keys.length * 2) resize(keys.length * 2);
+        return true;
+    }
+
+    /**
+     * Удаляет билет по id
+     * @param id id
+     * @return удалённый билет или null, если его не было
+     */
+    Ticket remove(int id) {
+        int mask = keys.length - 1;
+        int i = slot(id, mask);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == id) break;
+        }
+        Ticket removed = values[i];
+        if (removed == null) return null;
+        int gap = i;
+        for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+            int home = slot(keys[j], mask);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        values[gap] = null;
+        size--;
+        return removed;
+    }
+
+    void clear() {
+        keys = new int[MIN_CAPACITY];
+        values = new Ticket[MIN_CAPACITY];
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Ticket[] oldValues = values;
+        keys = new int[capacity];
+        values = new Ticket[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] == null) continue;
+            int i = slot(oldKeys[j], mask);
+            while (values[i] != null) i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+        }
+    }
+
+    private static int slot(int id, int mask) {
+        int h = id * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
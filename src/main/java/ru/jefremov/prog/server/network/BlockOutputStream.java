@@ -0,0 +1,72 @@
+package ru.jefremov.prog.server.network;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Поток, записывающий ответ сразу в блоки из пула буферов. В начале каждого блока оставляется место
+ * под заголовок, который заполняется при завершении записи.
+ */
+public class BlockOutputStream extends OutputStream {
+    private final BufferPool pool;
+    private final List<ByteBuffer> blocks = new ArrayList<>();
+    private ByteBuffer current;
+
+    public BlockOutputStream(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void write(int b) {
+        ensureBlock();
+        current.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            ensureBlock();
+            int count = Math.min(length, current.remaining());
+            current.put(bytes, offset, count);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    private void ensureBlock() {
+        if (current != null && current.hasRemaining()) return;
+        current = pool.lease(BufferPool.BASE_CAPACITY);
+        current.limit(BufferPool.BASE_CAPACITY).position(ResponseForming.BLOCK_HEADER_SIZE);
+        blocks.add(current);
+    }
+
+    /**
+     * Заполняет заголовки блоков и подготавливает их к записи в канал
+     * @param flags флаги, проставляемые в заголовок каждого блока
+     * @return блоки ответа
+     */
+    public ByteBuffer[] finish(byte flags) {
+        ensureBlock();
+        ByteBuffer[] result = blocks.toArray(new ByteBuffer[0]);
+        for (int i = 0; i < result.length; i++) {
+            ByteBuffer block = result[i];
+            block.flip();
+            block.putInt(0, block.limit() - ResponseForming.BLOCK_HEADER_SIZE);
+            block.put(Integer.BYTES, (byte) (i == result.length - 1 ? flags | ResponseForming.BLOCK_LAST : flags));
+        }
+        blocks.clear();
+        current = null;
+        return result;
+    }
+
+    /**
+     * Возвращает все блоки в пул, не завершая запись
+     */
+    public void discard() {
+        blocks.forEach(pool::release);
+        blocks.clear();
+        current = null;
+    }
+}
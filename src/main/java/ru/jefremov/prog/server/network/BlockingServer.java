@@ -0,0 +1,281 @@
+package ru.jefremov.prog.server.network;
+
+import ru.jefremov.prog.common.Printer;
+import ru.jefremov.prog.common.network.Handshake;
+import ru.jefremov.prog.common.network.Request;
+import ru.jefremov.prog.common.network.Response;
+import ru.jefremov.prog.common.serialisers.Serialiser;
+import ru.jefremov.prog.common.serialisers.WireCodec;
+import ru.jefremov.prog.common.serialisers.WireCodecs;
+import ru.jefremov.prog.server.commands.TicketsStream;
+import ru.jefremov.prog.server.exceptions.RequestReadingException;
+import ru.jefremov.prog.server.exceptions.SerialisationException;
+import ru.jefremov.prog.server.exceptions.ServerLaunchException;
+import ru.jefremov.prog.server.managers.ServerAdministrator;
+import ru.jefremov.prog.server.managers.ServerCommandManager;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Сервер, обслуживающий каждое подключение в отдельном потоке блокирующими чтением и записью.
+ * Если среда исполнения поддерживает виртуальные потоки, используются они.
+ */
+public class BlockingServer implements Transport {
+    private final ServerSocketChannel server;
+    private final ExecutorService connectionThreads;
+    private volatile boolean running;
+    public final ServerAdministrator administrator;
+    public final ServerCommandManager manager;
+    public final ServerSettings settings;
+    private final AtomicInteger connections = new AtomicInteger();
+    /**
+     * Открытые подключения
+     */
+    private final Set<SocketChannel> channels = ConcurrentHashMap.newKeySet();
+    /**
+     * Подключения, потоки которых ждут очередного запроса
+     */
+    private final Set<SocketChannel> idle = ConcurrentHashMap.newKeySet();
+    private volatile boolean draining;
+    private volatile long drainDeadline;
+    private volatile ShutdownReport report;
+    private volatile boolean started;
+    private final CountDownLatch terminated = new CountDownLatch(1);
+
+    public BlockingServer(int port, ServerAdministrator administrator) throws ServerLaunchException {
+        this(port, administrator, ServerSettings.fromEnvironment());
+    }
+
+    public BlockingServer(int port, ServerAdministrator administrator, ServerSettings settings) throws ServerLaunchException {
+        this.settings = settings;
+        this.administrator = administrator;
+        this.manager = administrator.commandManager;
+        try {
+            server = ServerSocketChannel.open();
+        } catch (IOException e) {
+            throw new ServerLaunchException("Server launch problem: "+e.getMessage());
+        }
+        try {
+            server.bind(new InetSocketAddress(port));
+        } catch (IOException e) {
+            throw new ServerLaunchException("Occupied port");
+        }
+        connectionThreads = newConnectionExecutor();
+        running = true;
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
+    }
+
+    /**
+     * Создаёт исполнителя, запускающего каждую задачу в новом виртуальном потоке,
+     * а при их отсутствии в среде исполнения - кэширующий пул обычных потоков.
+     * @return исполнитель
+     */
+    private static ExecutorService newConnectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            Printer.println("Virtual threads are not available, using platform threads.");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    @Override
+    public void run() {
+        started = true;
+        while (running) {
+            try {
+                SocketChannel channel = server.accept();
+                if (connections.incrementAndGet() > settings.maxConnections) {
+                    connections.decrementAndGet();
+                    reject(channel);
+                    continue;
+                }
+                Printer.println("Client connected");
+                connectionThreads.execute(() -> serve(channel));
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                Printer.println("Failed to accept client: "+e.getMessage());
+            }
+        }
+        terminate();
+    }
+
+    /**
+     * Завершает работу после остановки приёма подключений: прерывает ожидание новых запросов,
+     * даёт потокам подключений дописать ответы до истечения срока и сохраняет коллекцию. Выполняется ровно один раз.
+     */
+    private void terminate() {
+        requestDrain();
+        report.phase("accepting stopped");
+        closeIdle();
+        connectionThreads.shutdown();
+        try {
+            long remaining = Math.max(0, drainDeadline - System.nanoTime());
+            if (connectionThreads.awaitTermination(remaining, TimeUnit.NANOSECONDS)) {
+                report.phase("responses flushed");
+            } else {
+                Printer.println("Shutdown deadline exceeded: " + channels.size() + " connections busy");
+                for (SocketChannel channel : channels) closeQuietly(channel);
+                connectionThreads.shutdownNow();
+                report.phase("deadline exceeded");
+            }
+        } catch (InterruptedException e) {
+            connectionThreads.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        administrator.save();
+        report.phase("collection saved");
+        Printer.println(report);
+        Printer.println(BufferPool.shared);
+        terminated.countDown();
+    }
+
+    private synchronized void requestDrain() {
+        if (draining) return;
+        drainDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.shutdownTimeout);
+        report = new ShutdownReport();
+        running = false;
+        draining = true;
+    }
+
+    private void closeIdle() {
+        for (SocketChannel channel : idle) closeQuietly(channel);
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Обслуживает одно подключение до его закрытия
+     * @param channel канал подключения
+     */
+    private void serve(SocketChannel channel) {
+        RequestReader reader = new RequestReader(BufferPool.shared);
+        channels.add(channel);
+        try (channel) {
+            idle.add(channel);
+            Handshake offer = reader.readHandshake(channel);
+            while (offer == null) {
+                offer = reader.readHandshake(channel);
+            }
+            idle.remove(channel);
+            Handshake answer = WireCodecs.answer(offer);
+            writeFully(channel, ResponseForming.encodeHandshake(answer));
+            if (answer.isRefused()) {
+                Printer.println("Client refused: "+answer.reason);
+                return;
+            }
+            WireCodec codec = WireCodecs.get(answer.codecs[0]);
+            reader.setSerialiser(codec.requestSerialiser());
+            Serialiser<Response> responses = codec.responseSerialiser();
+            while (running) {
+                idle.add(channel);
+                if (!running) break;
+                Request request = reader.read(channel);
+                while (request == null) {
+                    request = reader.read(channel);
+                }
+                idle.remove(channel);
+                respond(channel, request, responses, answer.compression);
+            }
+        } catch (IOException e) {
+            Printer.println("Client disconnected");
+        } catch (RequestReadingException | SerialisationException e) {
+            Printer.println("Failed to read request.");
+        } finally {
+            idle.remove(channel);
+            channels.remove(channel);
+            reader.release();
+            connections.decrementAndGet();
+        }
+    }
+
+    /**
+     * Отклоняет подключение сверх лимита
+     * @param channel канал подключения
+     */
+    private void reject(SocketChannel channel) {
+        try (channel) {
+            writeFully(channel, ResponseForming.encodeHandshake(Handshake.refuse("Server is overloaded")));
+        } catch (IOException ignored) {
+        }
+        Printer.println("Client rejected: connection limit reached");
+    }
+
+    /**
+     * Формирует и отправляет ответ. Потоковый ответ отправляется по частям.
+     * @param channel канал подключения
+     * @param request запрос
+     * @param responses сериализатор ответов подключения
+     * @param compression разрешено ли подключению сжатие ответов
+     * @throws IOException вызывается при ошибке записи
+     */
+    private void respond(SocketChannel channel, Request request, Serialiser<Response> responses, boolean compression) throws IOException {
+        Response response = ResponseForming.formResponse(request, manager);
+        if (response.result instanceof TicketsStream) {
+            TicketsStream stream = (TicketsStream) response.result;
+            Response chunk;
+            do {
+                chunk = ResponseForming.nextChunk(request, stream);
+                writeFully(channel, ResponseForming.encode(request, chunk, responses, compression));
+            } while (!ResponseForming.isLastChunk(chunk));
+        } else {
+            writeFully(channel, ResponseForming.encode(request, response, responses, compression));
+        }
+    }
+
+    private void writeFully(SocketChannel channel, ByteBuffer[] buffers) throws IOException {
+        try {
+            for (ByteBuffer buffer : buffers) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffers);
+                }
+            }
+        } finally {
+            ResponseForming.release(buffers);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        requestDrain();
+        if (!started) {
+            administrator.save();
+            return;
+        }
+        try {
+            server.close();
+        } catch (IOException e) {
+            Printer.println("Failed to close server correctly");
+        }
+        closeIdle();
+        try {
+            terminated.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void stopServer() {
+        shutdown();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,131 @@
+package ru.jefremov.prog.server.network;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Пул прямых буферов, разбитых на классы по размеру. Класс с номером i содержит буферы ёмкостью
+ * {@link #BASE_CAPACITY} * 2^i, наименьший класс вмещает ровно один блок ответа с заголовком.
+ * Буферы выдаются во временное пользование и должны возвращаться через {@link #release(ByteBuffer)}.
+ */
+public class BufferPool {
+    public static final int BASE_CAPACITY = Server.BLOCK_SIZE + ResponseForming.BLOCK_HEADER_SIZE;
+    public static final int CLASSES_COUNT = 12;
+    /**
+     * Сколько байт может простаивать в каждом классе
+     */
+    private static final long IDLE_BYTES_PER_CLASS = 4L * 1024 * 1024;
+    /**
+     * Общий пул сервера
+     */
+    public static final BufferPool shared = new BufferPool();
+
+    private final ArrayList<Queue<ByteBuffer>> free = new ArrayList<>(CLASSES_COUNT);
+    private final AtomicInteger[] freeCounts;
+    private final AtomicLong allocations = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private final AtomicLong leases = new AtomicLong();
+    private final AtomicLong leased = new AtomicLong();
+
+    public BufferPool() {
+        freeCounts = new AtomicInteger[CLASSES_COUNT];
+        for (int i = 0; i < CLASSES_COUNT; i++) {
+            free.add(new ConcurrentLinkedQueue<>());
+            freeCounts[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Выдаёт очищенный буфер ёмкостью не меньше требуемой
+     * @param capacity требуемая ёмкость
+     * @return буфер
+     */
+    public ByteBuffer lease(int capacity) {
+        int sizeClass = classOf(capacity);
+        if (sizeClass < 0) throw new IllegalArgumentException("Buffer is too large: "+capacity);
+        leases.incrementAndGet();
+        leased.incrementAndGet();
+        ByteBuffer buffer = free.get(sizeClass).poll();
+        if (buffer != null) {
+            freeCounts[sizeClass].decrementAndGet();
+            return buffer;
+        }
+        int classCapacity = BASE_CAPACITY << sizeClass;
+        allocations.incrementAndGet();
+        allocatedBytes.addAndGet(classCapacity);
+        return ByteBuffer.allocateDirect(classCapacity);
+    }
+
+    /**
+     * Возвращает буфер в пул. Лишние буферы отдаются сборщику мусора.
+     * @param buffer буфер, полученный из этого пула
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null) return;
+        leased.decrementAndGet();
+        int sizeClass = classOf(buffer.capacity());
+        if (sizeClass < 0 || (BASE_CAPACITY << sizeClass) != buffer.capacity()) return;
+        long limit = Math.max(2, IDLE_BYTES_PER_CLASS / buffer.capacity());
+        if (freeCounts[sizeClass].incrementAndGet() > limit) {
+            freeCounts[sizeClass].decrementAndGet();
+            allocatedBytes.addAndGet(-buffer.capacity());
+            return;
+        }
+        buffer.clear();
+        free.get(sizeClass).offer(buffer);
+    }
+
+    private static int classOf(int capacity) {
+        for (int i = 0; i < CLASSES_COUNT; i++) {
+            if ((BASE_CAPACITY << i) >= capacity) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return количество буферов, созданных пулом
+     */
+    public long getAllocations() {
+        return allocations.get();
+    }
+
+    /**
+     * @return суммарная ёмкость буферов, созданных пулом и ещё не отданных сборщику мусора
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    /**
+     * @return количество выдач буферов
+     */
+    public long getLeases() {
+        return leases.get();
+    }
+
+    /**
+     * @return количество буферов, находящихся в пользовании
+     */
+    public long getLeased() {
+        return leased.get();
+    }
+
+    /**
+     * @return количество свободных буферов в пуле
+     */
+    public int getIdle() {
+        int idle = 0;
+        for (AtomicInteger count : freeCounts) idle += count.get();
+        return idle;
+    }
+
+    @Override
+    public String toString() {
+        return "Buffer pool: " + getLeased() + " leased, " + getIdle() + " idle, " +
+                getAllocations() + " allocated (" + getAllocatedBytes() + " bytes), " + getLeases() + " leases";
+    }
+}
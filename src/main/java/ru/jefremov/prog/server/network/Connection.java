@@ -0,0 +1,262 @@
+package ru.jefremov.prog.server.network;
+
+import ru.jefremov.prog.common.network.Request;
+import ru.jefremov.prog.common.network.Response;
+import ru.jefremov.prog.common.serialisers.Serialiser;
+import ru.jefremov.prog.common.serialisers.WireCodec;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Состояние отдельного подключения. Хранится во вложении ключа селектора.
+ */
+public class Connection {
+    public final SocketChannel channel;
+    public final SelectionKey key;
+    /**
+     * Читатель запросов, накапливающий кадры между чтениями
+     */
+    final RequestReader reader = new RequestReader(BufferPool.shared);
+    /**
+     * Сериализатор ответов подключения, назначается при рукопожатии
+     */
+    volatile Serialiser<Response> responses;
+    /**
+     * Разрешено ли при рукопожатии сжатие ответов
+     */
+    volatile boolean compression;
+    /**
+     * Адрес клиента, записывается при рукопожатии
+     */
+    InetAddress host;
+    /**
+     * Удерживается на время кодирования ответа и постановки его в очередь: сериализатор с состоянием требует,
+     * чтобы ответы отправлялись в порядке кодирования
+     */
+    final Object encoding = new Object();
+    /**
+     * Запросы, ожидающие исполнения, в порядке поступления
+     */
+    private final ArrayDeque<Request> waiting = new ArrayDeque<>();
+    private int running;
+    private boolean runningMutating;
+    /**
+     * Закодированные ответы, ожидающие отправки
+     */
+    private final Queue<Outgoing> outgoing = new ConcurrentLinkedQueue<>();
+    private volatile Outgoing writing;
+    private int writingIndex;
+    private volatile boolean closed;
+    /**
+     * Объём ответов, ожидающих отправки по всем подключениям сервера
+     */
+    private final AtomicLong outboundBytes;
+    /**
+     * Момент последнего продвижения записи, по нему обнаруживаются клиенты, переставшие читать
+     */
+    private volatile long lastProgress = System.nanoTime();
+
+    public Connection(SocketChannel channel, SelectionKey key, AtomicLong outboundBytes) {
+        this.channel = channel;
+        this.key = key;
+        this.outboundBytes = outboundBytes;
+    }
+
+    /**
+     * Назначает подключению формат передачи, выбранный при рукопожатии
+     * @param codec формат передачи
+     * @param compression разрешено ли сжатие ответов
+     */
+    void negotiated(WireCodec codec, boolean compression) {
+        reader.setSerialiser(codec.requestSerialiser());
+        this.compression = compression;
+        this.responses = codec.responseSerialiser();
+    }
+
+    /**
+     * Проверяет, завершено ли рукопожатие
+     * @return выбран ли формат передачи
+     */
+    boolean isNegotiated() {
+        return responses != null;
+    }
+
+    /**
+     * Ставит запрос в очередь подключения
+     * @param request запрос
+     */
+    synchronized void schedule(Request request) {
+        waiting.add(request);
+    }
+
+    /**
+     * Извлекает запросы, которые можно исполнять прямо сейчас. Неизменяющие запросы исполняются параллельно,
+     * а изменяющий запрос ждёт завершения всех предыдущих и сам задерживает все последующие.
+     * @param mutating проверка, изменяет ли запрос коллекцию
+     * @return запросы, готовые к исполнению
+     */
+    synchronized List<Request> takeRunnable(Predicate<Request> mutating) {
+        List<Request> runnable = new ArrayList<>();
+        while (!waiting.isEmpty() && !runningMutating) {
+            Request head = waiting.peek();
+            if (mutating.test(head)) {
+                if (running > 0) break;
+                runningMutating = true;
+            }
+            waiting.poll();
+            running++;
+            runnable.add(head);
+        }
+        return runnable;
+    }
+
+    /**
+     * Отмечает завершение исполнения запроса
+     * @param mutating изменял ли запрос коллекцию
+     */
+    synchronized void complete(boolean mutating) {
+        running--;
+        if (mutating) runningMutating = false;
+    }
+
+    /**
+     * Количество запросов, полученных, но ещё не исполненных
+     * @return количество запросов
+     */
+    synchronized int inFlight() {
+        return waiting.size() + running;
+    }
+
+    /**
+     * Ставит ответ в очередь на отправку
+     * @param buffers закодированный ответ
+     */
+    void enqueue(ByteBuffer[] buffers) {
+        enqueue(buffers, null);
+    }
+
+    /**
+     * Ставит ответ в очередь на отправку
+     * @param buffers закодированный ответ
+     * @param onSent действие после полной отправки ответа, например подготовка следующей части потокового ответа
+     */
+    void enqueue(ByteBuffer[] buffers, Runnable onSent) {
+        Outgoing response = new Outgoing(buffers, onSent);
+        if (!hasPendingOutput()) lastProgress = System.nanoTime();
+        outboundBytes.addAndGet(response.size);
+        outgoing.add(response);
+        if (closed) releaseOutgoing();
+    }
+
+    /**
+     * Проверяет, есть ли неотправленные ответы
+     * @return есть ли неотправленные ответы
+     */
+    boolean hasPendingOutput() {
+        return writing != null || !outgoing.isEmpty();
+    }
+
+    /**
+     * Проверяет, не принимает ли клиент ответы дольше допустимого
+     * @param timeoutNanos допустимое время без продвижения записи
+     * @param now текущее время
+     * @return завис ли клиент
+     */
+    boolean isStalled(long timeoutNanos, long now) {
+        return hasPendingOutput() && now - lastProgress > timeoutNanos;
+    }
+
+    /**
+     * Отправляет накопленные ответы, пока канал их принимает. Вызывается только потоком селектора.
+     * @return отправлены ли все ответы
+     * @throws IOException вызывается при ошибке записи
+     */
+    boolean flush() throws IOException {
+        while (true) {
+            if (writing == null) {
+                writing = outgoing.poll();
+                writingIndex = 0;
+                if (writing == null) return true;
+            }
+            ByteBuffer[] buffers = writing.buffers;
+            if (channel.write(buffers, writingIndex, buffers.length - writingIndex) > 0) {
+                lastProgress = System.nanoTime();
+            }
+            while (writingIndex < buffers.length && !buffers[writingIndex].hasRemaining()) {
+                writingIndex++;
+            }
+            if (writingIndex < buffers.length) return false;
+            ResponseForming.release(buffers);
+            outboundBytes.addAndGet(-writing.size);
+            Runnable onSent = writing.onSent;
+            writing = null;
+            if (onSent != null) onSent.run();
+        }
+    }
+
+    /**
+     * Закрывает подключение. Повторное закрытие ничего не делает.
+     * @return было ли подключение открыто до вызова
+     */
+    public boolean close() {
+        if (closed) return false;
+        closed = true;
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        reader.release();
+        if (writing != null) {
+            ResponseForming.release(writing.buffers);
+            outboundBytes.addAndGet(-writing.size);
+            writing = null;
+        }
+        releaseOutgoing();
+        return true;
+    }
+
+    /**
+     * Проверяет, закрыто ли подключение
+     * @return закрыто ли подключение
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+    private void releaseOutgoing() {
+        Outgoing response;
+        while ((response = outgoing.poll()) != null) {
+            ResponseForming.release(response.buffers);
+            outboundBytes.addAndGet(-response.size);
+        }
+    }
+
+    /**
+     * Ответ в очереди на отправку
+     */
+    private static class Outgoing {
+        private final ByteBuffer[] buffers;
+        private final Runnable onSent;
+        private final long size;
+
+        private Outgoing(ByteBuffer[] buffers, Runnable onSent) {
+            this.buffers = buffers;
+            this.onSent = onSent;
+            long size = 0;
+            for (ByteBuffer buffer : buffers) size += buffer.remaining();
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package ru.jefremov.prog.server.network;
+
+import ru.jefremov.prog.common.Printer;
+import ru.jefremov.prog.common.network.Request;
+import ru.jefremov.prog.common.network.Response;
+import ru.jefremov.prog.common.network.Status;
+import ru.jefremov.prog.common.serialisers.Serialisers;
+import ru.jefremov.prog.server.exceptions.SerialisationException;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Set;
+
+/**
+ * Приём небольших запросов по UDP на том же порту, что и TCP. Каждый запрос и каждый ответ занимают одну датаграмму
+ * без заголовков блоков. Если ответ в датаграмму не помещается, клиент получает {@link Status#RETRY_TCP}
+ * и повторяет запрос по TCP. Потерянные датаграммы клиент отправляет повторно: повторное удаление
+ * отвечается из {@link ReplayCache}, а остальные команды только читают и исполняются снова.
+ * Чтобы сервер нельзя было использовать для усиления трафика, по UDP исполняются только команды из {@link #COMMANDS},
+ * а ответ может быть больше запроса не более чем в {@link #AMPLIFICATION_LIMIT} раз. Клиент дополняет
+ * короткие запросы нулями, поэтому ответы обычного размера в это ограничение укладываются.
+ */
+public class DatagramEndpoint {
+    public static final int MAX_DATAGRAM_SIZE = 8192;
+    public static final int AMPLIFICATION_LIMIT = 4;
+    /**
+     * Команды, исполняемые по UDP. Остальные получают {@link Status#RETRY_TCP}.
+     */
+    public static final Set<String> COMMANDS = Set.of("info", "help", "history", "remove_by_id");
+    private final DatagramChannel channel;
+    /**
+     * Буфер приёма, используется только потоком селектора
+     */
+    private final ByteBuffer incoming = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+
+    /**
+     * Открывает канал и регистрирует его в селекторе сервера
+     * @param port порт
+     * @param selector селектор сервера
+     * @throws IOException вызывается, если канал не удалось открыть
+     */
+    public DatagramEndpoint(int port, Selector selector) throws IOException {
+        channel = DatagramChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.bind(new InetSocketAddress(port));
+            channel.register(selector, SelectionKey.OP_READ, this);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Обработчик принятого запроса
+     */
+    @FunctionalInterface
+    public interface Handler {
+        /**
+         * @param request запрос
+         * @param sender адрес отправителя
+         * @param size размер датаграммы запроса
+         */
+        void accept(Request request, InetSocketAddress sender, int size);
+    }
+
+    /**
+     * Принимает все доступные датаграммы. Повреждённые датаграммы отбрасываются.
+     * @param handler обработчик запроса
+     * @throws IOException вызывается при ошибке канала
+     */
+    public void receive(Handler handler) throws IOException {
+        SocketAddress sender;
+        while ((sender = channel.receive(incoming)) != null) {
+            incoming.flip();
+            int size = incoming.remaining();
+            try {
+                handler.accept(Serialisers.requestSerialiser.deserialise(new ByteBufferInputStream(incoming)), (InetSocketAddress) sender, size);
+            } catch (SerialisationException | ClassCastException e) {
+                Printer.println("Failed to read datagram.");
+            } finally {
+                incoming.clear();
+            }
+        }
+    }
+
+    /**
+     * Отправляет ответ одной датаграммой. Если ответ не помещается в датаграмму или больше запроса
+     * более чем в {@link #AMPLIFICATION_LIMIT} раз, отправляется {@link Status#RETRY_TCP}.
+     * Если буфер отправки переполнен, ответ отбрасывается: клиент повторит запрос.
+     * @param address адрес клиента
+     * @param response ответ
+     * @param requestSize размер датаграммы запроса
+     */
+    public void reply(SocketAddress address, Response response, int requestSize) {
+        try {
+            byte[] bytes = Serialisers.responseSerialiser.serialize(response);
+            if (bytes.length > MAX_DATAGRAM_SIZE || bytes.length > (long) requestSize * AMPLIFICATION_LIMIT) {
+                bytes = Serialisers.responseSerialiser.serialize(retry(response.requestId));
+            }
+            channel.send(ByteBuffer.wrap(bytes), address);
+        } catch (SerialisationException | IOException e) {
+            Printer.println("Failed to send datagram.");
+        }
+    }
+
+    /**
+     * Формирует ответ, предписывающий повторить запрос по TCP. Ответ без текста, чтобы он был не больше любого запроса.
+     * @param requestId идентификатор запроса
+     * @return ответ
+     */
+    public static Response retry(long requestId) {
+        return new Response(requestId, null, Status.RETRY_TCP, null);
+    }
+
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package ru.jefremov.prog.server.network;
+
+import ru.jefremov.prog.common.network.Response;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Окно недавних изменяющих запросов каждой сессии. Если клиент после переподключения повторно отправляет запрос,
+ * который уже исполнен или исполняется, он получает тот же ответ, а команда не исполняется второй раз.
+ * Хранятся последние {@link #WINDOW_SIZE} запросов каждой из {@link #SESSIONS_LIMIT} недавних сессий.
+ */
+public class ReplayCache {
+    public static final int SESSIONS_LIMIT = 1024;
+    public static final int WINDOW_SIZE = 128;
+    /**
+     * Общее окно сервера
+     */
+    public static final ReplayCache shared = new ReplayCache();
+
+    private final LinkedHashMap<UUID, LinkedHashMap<Long, CompletableFuture<Response>>> sessions =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<UUID, LinkedHashMap<Long, CompletableFuture<Response>>> eldest) {
+                    return size() > SESSIONS_LIMIT;
+                }
+            };
+
+    /**
+     * Регистрирует исполнение запроса
+     * @param session сессия клиента
+     * @param requestId идентификатор запроса
+     * @param response ответ, который будет выдан при повторной отправке
+     * @return ответ на ранее зарегистрированный запрос с тем же идентификатором или null, если запрос новый
+     */
+    public synchronized CompletableFuture<Response> register(UUID session, long requestId, CompletableFuture<Response> response) {
+        LinkedHashMap<Long, CompletableFuture<Response>> window = sessions.computeIfAbsent(session, s ->
+                new LinkedHashMap<>() {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<Long, CompletableFuture<Response>> eldest) {
+                        return size() > WINDOW_SIZE;
+                    }
+                });
+        return window.putIfAbsent(requestId, response);
+    }
+}
@@ -1,18 +1,156 @@
 package ru.jefremov.prog.server.network;
 
-import ru.jefremov.prog.common.Printer;
+import ru.jefremov.prog.common.network.Handshake;
 import ru.jefremov.prog.common.network.Request;
-import ru.jefremov.prog.common.serialisers.Serialisers;
+import ru.jefremov.prog.common.serialisers.Serialiser;
+import ru.jefremov.prog.server.exceptions.RequestReadingException;
 import ru.jefremov.prog.server.exceptions.SerialisationException;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.SocketChannel;
+import java.nio.channels.ReadableByteChannel;
 
+/**
+ * Читатель запросов одного подключения. Запрос передаётся кадром: 4 байта длины и сериализованный запрос.
+ * Кадр накапливается в буфере подключения на протяжении нескольких чтений,
+ * десериализация начинается только после получения кадра целиком.
+ * Буфер берётся из пула и возвращается в него, как только в нём не остаётся данных.
+ * Первым кадром подключения приходит рукопожатие, сериализатор запросов назначается по его итогам.
+ */
 public class RequestReader {
-    protected static Request readRequest(SocketChannel socketChannel) throws SerialisationException, IOException {
-        ByteBuffer buffer = ByteBuffer.allocate(Server.BLOCK_SIZE);
-        socketChannel.read(buffer);
-        return Serialisers.requestSerialiser.deserialise(buffer.array());
+    public static final int HEADER_SIZE = Integer.BYTES;
+    public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+    private final BufferPool pool;
+    private Serialiser<Request> serialiser;
+    private ByteBuffer buffer;
+
+    public RequestReader(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Назначает сериализатор запросов, выбранный при рукопожатии
+     * @param serialiser сериализатор запросов подключения
+     */
+    public void setSerialiser(Serialiser<Request> serialiser) {
+        this.serialiser = serialiser;
+    }
+
+    /**
+     * Читает доступные данные из канала и извлекает рукопожатие
+     * @param channel канал
+     * @return предложение клиента или null, если кадр ещё не пришёл целиком
+     * @throws IOException вызывается, если канал закрыт
+     * @throws RequestReadingException вызывается при нарушении формата кадра или если кадр не является рукопожатием
+     */
+    public Handshake readHandshake(ReadableByteChannel channel) throws IOException, RequestReadingException {
+        Handshake pending = pollHandshake();
+        if (pending != null) return pending;
+        fill(channel);
+        return pollHandshake();
+    }
+
+    private Handshake pollHandshake() throws RequestReadingException {
+        int frameSize = completeFrameSize();
+        if (frameSize == 0) return null;
+        try {
+            return Handshake.decode(new ByteBufferInputStream(frame(frameSize)));
+        } catch (IOException e) {
+            throw new RequestReadingException("Broken handshake: "+e.getMessage());
+        } finally {
+            consume(frameSize);
+        }
+    }
+
+    /**
+     * Читает доступные данные из канала
+     * @param channel канал
+     * @return полученный запрос или null, если кадр ещё не пришёл целиком
+     * @throws IOException вызывается, если канал закрыт
+     * @throws RequestReadingException вызывается при нарушении формата кадра
+     * @throws SerialisationException вызывается, если запрос не удалось десериализовать
+     */
+    public Request read(ReadableByteChannel channel) throws IOException, RequestReadingException, SerialisationException {
+        Request pending = poll();
+        if (pending != null) return pending;
+        fill(channel);
+        return poll();
+    }
+
+    private void fill(ReadableByteChannel channel) throws IOException {
+        if (buffer == null) buffer = pool.lease(BufferPool.BASE_CAPACITY);
+        if (channel.read(buffer) == -1) {
+            throw new IOException("Connection closed");
+        }
+    }
+
+    /**
+     * Извлекает запрос из уже накопленных данных, не обращаясь к каналу
+     * @return полученный запрос или null, если кадр ещё не пришёл целиком
+     * @throws RequestReadingException вызывается при нарушении формата кадра
+     * @throws SerialisationException вызывается, если запрос не удалось десериализовать
+     */
+    public Request poll() throws RequestReadingException, SerialisationException {
+        int frameSize = completeFrameSize();
+        if (frameSize == 0) return null;
+        Request request;
+        try {
+            request = serialiser.deserialise(new ByteBufferInputStream(frame(frameSize)));
+        } finally {
+            consume(frameSize);
+        }
+        return request;
+    }
+
+    /**
+     * Проверяет, пришёл ли очередной кадр целиком
+     * @return размер кадра вместе с заголовком или 0, если кадр ещё не пришёл целиком
+     * @throws RequestReadingException вызывается при недопустимой длине кадра
+     */
+    private int completeFrameSize() throws RequestReadingException {
+        if (buffer == null || buffer.position() < HEADER_SIZE) return 0;
+        int length = buffer.getInt(0);
+        if (length <= 0 || length > MAX_FRAME_SIZE) {
+            throw new RequestReadingException("Illegal request length: "+length);
+        }
+        int frameSize = HEADER_SIZE + length;
+        if (buffer.position() < frameSize) {
+            ensureCapacity(frameSize);
+            return 0;
+        }
+        return frameSize;
+    }
+
+    private ByteBuffer frame(int frameSize) {
+        ByteBuffer frame = buffer.duplicate();
+        frame.limit(frameSize).position(HEADER_SIZE);
+        return frame;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (buffer.capacity() >= capacity) return;
+        ByteBuffer extended = pool.lease(capacity);
+        buffer.flip();
+        extended.put(buffer);
+        pool.release(buffer);
+        buffer = extended;
+    }
+
+    private void consume(int frameSize) {
+        buffer.flip();
+        buffer.position(frameSize);
+        if (!buffer.hasRemaining()) {
+            release();
+        } else {
+            buffer.compact();
+        }
+    }
+
+    /**
+     * Возвращает буфер в пул, отбрасывая накопленные данные
+     */
+    public void release() {
+        pool.release(buffer);
+        buffer = null;
     }
 }
@@ -2,50 +2,213 @@ package ru.jefremov.prog.server.network;
 
 import ru.jefremov.prog.common.Printer;
 import ru.jefremov.prog.common.commands.results.CommandResult;
+import ru.jefremov.prog.common.commands.results.TicketsArrayResult;
+import ru.jefremov.prog.common.commands.results.TicketsChunkResult;
 import ru.jefremov.prog.common.exceptions.command.CommandLaunchException;
+import ru.jefremov.prog.common.network.Handshake;
 import ru.jefremov.prog.common.network.Request;
 import ru.jefremov.prog.common.network.Response;
 import ru.jefremov.prog.common.network.Status;
+import ru.jefremov.prog.common.serialisers.Serialiser;
 import ru.jefremov.prog.common.serialisers.Serialisers;
+import ru.jefremov.prog.server.commands.TicketsStream;
 import ru.jefremov.prog.server.exceptions.SerialisationException;
 import ru.jefremov.prog.server.managers.ServerCommandManager;
 
-import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.SocketChannel;
-import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 public class ResponseForming {
+    /**
+     * Заголовок блока ответа: длина блока и признак последнего блока
+     */
+    public static final int BLOCK_HEADER_SIZE = Integer.BYTES + 1;
+    /**
+     * Флаг заголовка: последний блок ответа
+     */
+    public static final byte BLOCK_LAST = 1;
+    /**
+     * Флаг заголовка: ответ сжат алгоритмом Deflate
+     */
+    public static final byte BLOCK_COMPRESSED = 2;
+    /**
+     * Начиная с какого количества билетов ответ сжимается
+     */
+    public static final int COMPRESSION_THRESHOLD = 256;
+
+    /**
+     * Исполняет запрос и формирует ответ. Изменяющий запрос с указанной сессией исполняется не более одного раза:
+     * повторная отправка получает ответ из {@link ReplayCache}. Неизменяющие запросы в кеш не попадают
+     * и при повторной отправке просто исполняются снова, чтобы не вытеснять из окна сессии изменяющие.
+     * @param request запрос
+     * @param manager менеджер команд
+     * @return ответ
+     */
     public static Response formResponse(Request request, ServerCommandManager manager) {
+        if (request==null || request.session==null || !manager.isMutating(request.word)) {
+            return execute(request, manager);
+        }
+        CompletableFuture<Response> own = new CompletableFuture<>();
+        CompletableFuture<Response> previous = ReplayCache.shared.register(request.session, request.id, own);
+        if (previous != null) {
+            Printer.println("Replayed request "+request.id+" answered from cache");
+            return previous.join();
+        }
+        Response response = null;
+        try {
+            response = execute(request, manager);
+            return response;
+        } finally {
+            own.complete(response != null ? response : new Response(request.id, "Command failed", Status.ERROR, null));
+        }
+    }
+
+    /**
+     * Исполняет запрос. Любая ошибка команды превращается в ответ с ошибкой, поэтому метод не выбрасывает исключений.
+     */
+
+    private static Response execute(Request request, ServerCommandManager manager) {
         Response response;
         if (request==null || request.word==null || request.state==null) {
-            response = new Response("Blank request", Status.ERROR,null);
+            response = new Response((request==null ? 0 : request.id), "Blank request", Status.ERROR,null);
         }
         else {
             try {
                 CommandResult result = manager.launchCommand(request.word, request.state);
-                response = new Response("SUCCESS", Status.OK,result);
+                response = new Response(request.id, "SUCCESS", Status.OK,result);
             } catch (CommandLaunchException | ClassCastException e) {
-                response = new Response("Invalid request", Status.ERROR,null);
+                response = new Response(request.id, "Invalid request", Status.ERROR,null);
+            } catch (RuntimeException e) {
+                Printer.println("Command "+request.word+" failed: "+e);
+                response = new Response(request.id, "Command failed", Status.ERROR,null);
             }
         }
         return response;
     }
 
-    public static void sendResponse(SocketChannel socketChannel, Response response) throws SerialisationException, IOException {
-        byte[] bytes = Serialisers.responseSerialiser.serialize(response);
-        int blocks_count = bytes.length/Server.BLOCK_SIZE +(bytes.length % Server.BLOCK_SIZE == 0?0:1);
-        for (int i = 0; i < blocks_count; i++){
-            byte[] buffer = Arrays.copyOfRange(bytes, i * Server.BLOCK_SIZE, (i + 1) * Server.BLOCK_SIZE + 1);
-            buffer[buffer.length-1] = (byte)((i==blocks_count-1)?1:0);
-            socketChannel.write(ByteBuffer.wrap(buffer));
-            if (blocks_count>10) {
+    /**
+     * Сериализует ответ сразу в блоки из пула буферов. Каждый блок предваряется заголовком.
+     * После отправки блоки нужно вернуть в пул.
+     * @param response ответ
+     * @param compressed сжимать ли ответ по мере сериализации
+     * @param serialiser сериализатор ответов подключения
+     * @return блоки для записи в канал
+     * @throws SerialisationException вызывается, если ответ не удалось сериализовать
+     */
+    public static ByteBuffer[] encodeResponse(Response response, boolean compressed, Serialiser<Response> serialiser) throws SerialisationException {
+        BlockOutputStream out = new BlockOutputStream(BufferPool.shared);
+        try {
+            if (compressed) {
+                Deflater deflater = new Deflater(Deflater.BEST_SPEED);
                 try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
+                    serialiser.serialize(response, new DeflaterOutputStream(out, deflater, Server.BLOCK_SIZE));
+                } finally {
+                    deflater.end();
                 }
+            } else {
+                serialiser.serialize(response, out);
             }
+        } catch (SerialisationException | RuntimeException e) {
+            out.discard();
+            throw e;
+        }
+        return out.finish(compressed ? BLOCK_COMPRESSED : (byte) 0);
+    }
+
+    public static ByteBuffer[] encodeResponse(Response response) throws SerialisationException {
+        return encodeResponse(response, false, Serialisers.responseSerialiser);
+    }
+
+    /**
+     * Проверяет, стоит ли сжимать ответ: клиент должен поддерживать сжатие,
+     * а ответ - содержать достаточно большой массив билетов.
+     * @param request запрос
+     * @param response ответ
+     * @return нужно ли сжатие
+     */
+    private static boolean shouldCompress(Request request, Response response) {
+        return request != null && request.acceptsCompression && request.requiresLargeArrays
+                && response.result instanceof TicketsArrayResult
+                && ((TicketsArrayResult) response.result).tickets.length >= COMPRESSION_THRESHOLD;
+    }
+
+    /**
+     * Формирует очередную часть потокового ответа. Ошибка обхода завершает поток ответом с ошибкой.
+     * @param request запрос
+     * @param stream поток билетов
+     * @return часть ответа
+     */
+    public static Response nextChunk(Request request, TicketsStream stream) {
+        try {
+            return new Response(request.id, "SUCCESS", Status.OK, stream.nextChunk());
+        } catch (RuntimeException e) {
+            Printer.println("Failed to form a chunk: "+e);
+            return new Response(request.id, "Command failed", Status.ERROR, null);
+        }
+    }
+
+    /**
+     * Проверяет, завершает ли часть потоковый ответ. Ответ с ошибкой вместо части тоже его завершает.
+     * @param chunk часть ответа
+     * @return последняя ли это часть
+     */
+    public static boolean isLastChunk(Response chunk) {
+        return !(chunk.result instanceof TicketsChunkResult) || ((TicketsChunkResult) chunk.result).last;
+    }
+
+    /**
+     * Возвращает блоки отправленного ответа в пул
+     * @param blocks блоки
+     */
+    public static void release(ByteBuffer[] blocks) {
+        for (ByteBuffer block : blocks) {
+            BufferPool.shared.release(block);
+        }
+    }
+
+    /**
+     * Кодирует ответ на запрос. Любая ошибка сериализации заменяется ответом с ошибкой.
+     * @param request запрос
+     * @param response ответ
+     * @param serialiser сериализатор ответов подключения
+     * @param compression разрешено ли подключению сжатие ответов
+     * @return буферы для записи в канал
+     */
+    public static ByteBuffer[] encode(Request request, Response response, Serialiser<Response> serialiser, boolean compression) {
+        try {
+            return encodeResponse(response, compression && shouldCompress(request, response), serialiser);
+        } catch (SerialisationException | RuntimeException e) {
+            Printer.println("Failed to serialise response.");
+            return encodeError(request==null ? 0 : request.id, "Failed to serialise response", serialiser);
+        }
+    }
+
+    /**
+     * Кодирует ответ на рукопожатие одним блоком
+     * @param answer ответ на рукопожатие
+     * @return буферы для записи в канал
+     */
+    public static ByteBuffer[] encodeHandshake(Handshake answer) {
+        BlockOutputStream out = new BlockOutputStream(BufferPool.shared);
+        byte[] bytes = answer.encode();
+        out.write(bytes, 0, bytes.length);
+        return out.finish((byte) 0);
+    }
+
+    /**
+     * Кодирует ответ с ошибкой
+     * @param requestId идентификатор запроса
+     * @param text текст ошибки
+     * @param serialiser сериализатор ответов подключения
+     * @return буферы для записи в канал
+     */
+    public static ByteBuffer[] encodeError(long requestId, String text, Serialiser<Response> serialiser) {
+        try {
+            return encodeResponse(new Response(requestId, text, Status.ERROR, null), false, serialiser);
+        } catch (SerialisationException e) {
+            throw new IllegalStateException("Failed to serialise error response", e);
         }
     }
 }
@@ -1,30 +1,97 @@
 package ru.jefremov.prog.server.network;
 
 import ru.jefremov.prog.common.Printer;
+import ru.jefremov.prog.common.network.Handshake;
 import ru.jefremov.prog.common.network.Request;
 import ru.jefremov.prog.common.network.Response;
+import ru.jefremov.prog.common.serialisers.WireCodecs;
+import ru.jefremov.prog.server.commands.TicketsStream;
 import ru.jefremov.prog.server.exceptions.*;
 import ru.jefremov.prog.server.managers.ServerAdministrator;
 import ru.jefremov.prog.server.managers.ServerCommandManager;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.channels.*;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class Server {
+/**
+ * Сервер, построенный по схеме реактора: один поток ожидает событий селектора и выполняет ввод-вывод,
+ * а команды исполняются ограниченным пулом рабочих потоков.
+ */
+public class Server implements Transport {
     public static final int BLOCK_SIZE = 10000;
+    public static final int WORKERS_COUNT = Math.max(2, Runtime.getRuntime().availableProcessors());
+    public static final int WORK_QUEUE_CAPACITY = 1024;
+    /**
+     * Как часто в миллисекундах проверяется завершение работы при плавной остановке
+     */
+    private static final long DRAIN_POLL_INTERVAL = 10;
     private final Selector selector;
     private ServerSocketChannel server;
+    /**
+     * Приём запросов по UDP, null если порт UDP занят
+     */
+    private DatagramEndpoint datagrams;
+    /**
+     * Количество подключений с завершённым рукопожатием с каждого адреса. Датаграммы принимаются только с этих адресов.
+     * Используется только потоком селектора.
+     */
+    private final HashMap<InetAddress, Integer> hosts = new HashMap<>();
+    /**
+     * Количество запросов по UDP, принятых и ещё не исполненных
+     */
+    private final AtomicInteger datagramsInFlight = new AtomicInteger();
     private SocketAddress address;
-    private boolean running;
-    private Request request;
-    private Response response;
+    private volatile boolean running;
+    private final ExecutorService workers;
+    /**
+     * Подключения, для которых рабочие потоки сформировали ответ
+     */
+    private final Queue<Connection> responded = new ConcurrentLinkedQueue<>();
+    /**
+     * Подготовка следующих частей потоковых ответов, не принятая переполненной очередью рабочих потоков.
+     * Передаётся им повторно на следующем проходе цикла. Используется только потоком селектора.
+     */
+    private final ArrayDeque<Runnable> parkedStreams = new ArrayDeque<>();
     public final ServerAdministrator administrator;
     public final ServerCommandManager manager;
+    public final ServerSettings settings;
+    /**
+     * Объём ответов, ожидающих отправки по всем подключениям
+     */
+    private final AtomicLong outboundBytes = new AtomicLong();
+    private int connections;
+    /**
+     * Приостановлено ли чтение запросов из-за переполнения бюджета исходящих данных
+     */
+    private boolean readsPaused;
+    private long lastSweep = System.nanoTime();
+    /**
+     * Запрошена ли плавная остановка
+     */
+    private volatile boolean draining;
+    private volatile long drainDeadline;
+    private volatile ShutdownReport report;
+    private boolean commandsFinished;
+    private volatile boolean started;
+    private final CountDownLatch terminated = new CountDownLatch(1);
+
     public Server(int port, ServerAdministrator administrator) throws ServerLaunchException {
-        Runtime.getRuntime().addShutdownHook(new Thread(administrator::save));
+        this(port, administrator, ServerSettings.fromEnvironment());
+    }
+
+    public Server(int port, ServerAdministrator administrator, ServerSettings settings) throws ServerLaunchException {
+        this.settings = settings;
         this.administrator = administrator;
         this.manager = administrator.commandManager;
         try {
@@ -44,98 +111,510 @@ public class Server {
         } catch (IOException e) {
             throw new ServerLaunchException("Occupied port");
         }
+        try {
+            datagrams = new DatagramEndpoint(port, selector);
+        } catch (IOException e) {
+            Printer.println("UDP transport is not available: "+e.getMessage());
+        }
+        workers = new ThreadPoolExecutor(WORKERS_COUNT, WORKERS_COUNT, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(WORK_QUEUE_CAPACITY));
         running = true;
+        Printer.println(settings);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
     }
 
+    @Override
     public void run() {
+        started = true;
+        long sweepInterval = Math.max(10, Math.min(1000, settings.writeTimeout / 2));
         try {
             while (running) {
-                int selected = selector.selectNow();
-                if (selected==0) continue;
+                selector.select(draining || !parkedStreams.isEmpty() ? DRAIN_POLL_INTERVAL : sweepInterval);
+                registerResponses();
+                resumeStreams();
+                if (draining && drain()) break;
+                checkOutboundBudget();
+                sweepStalled(sweepInterval);
                 Set<SelectionKey> keys = selector.selectedKeys();
                 for (var iter = keys.iterator(); iter.hasNext(); ) {
                     SelectionKey key = iter.next();
                     iter.remove();
-                    if (key.isValid()) {
-                        if (key.isAcceptable()) {
+                    if (!key.isValid()) {
+                        key.cancel();
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        try {
                             doAccept(key);
+                        } catch (ClientAcceptingException e) {
+                            Printer.println(e.getMessage());
                         }
-                        if (key.isValid() && key.isReadable()) {
-                            try {
-                                doRead(key);
-                            } catch (SerialisationException e) {
-                                request = null;
-                                Printer.println("Failed to read request.");
-                                ((SocketChannel)key.channel()).socket().close();
-                                key.cancel();
-                            } finally {
-                                Printer.println("Respond formed");
-                                response = ResponseForming.formResponse(request,manager);
-                            }
+                        continue;
+                    }
+                    if (key.attachment() instanceof DatagramEndpoint) {
+                        receiveDatagrams();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            doRead(connection);
                         }
                         if (key.isValid() && key.isWritable()) {
-                            if (response!=null) {
-                                doWrite(key);
-                            }
+                            doWrite(connection);
                         }
-                    } else {
-                        key.cancel();
+                    } catch (IOException e) {
+                        closeConnection(connection, "Client disconnected");
                     }
                 }
             }
-
-        } catch (IOException e) {
-            Printer.println("Client disconnected");
-        } catch (ClientAcceptingException e) {
-            Printer.println(e.getMessage());
+        } catch (ClosedSelectorException e) {
+            Printer.println("Selector closed");
         } catch (Exception e) {
             Printer.println(e.getMessage());
-            stopServer();
         }
+        terminate();
+    }
+
+    /**
+     * Шаг плавной остановки, выполняемый потоком селектора: закрывает приём подключений и чтение запросов,
+     * затем ждёт, пока все начатые команды завершатся, а их ответы будут отправлены.
+     * @return можно ли завершать цикл селектора
+     */
+    private boolean drain() {
+        if (server.isOpen()) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                Printer.println("Failed to close server correctly");
+            }
+            if (datagrams != null) datagrams.close();
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) updateReadInterest((Connection) key.attachment());
+            }
+            report.phase("accepting stopped");
+        }
+        int executing = 0;
+        int sending = 0;
+        for (SelectionKey key : selector.keys()) {
+            if (!(key.attachment() instanceof Connection)) continue;
+            Connection connection = (Connection) key.attachment();
+            if (connection.inFlight() > 0) executing++;
+            if (connection.hasPendingOutput()) sending++;
+        }
+        if (executing == 0 && !commandsFinished) {
+            commandsFinished = true;
+            report.phase("commands finished");
+        }
+        if (executing == 0 && sending == 0) {
+            report.phase("responses flushed");
+            return true;
+        }
+        if (System.nanoTime() - drainDeadline > 0) {
+            Printer.println("Shutdown deadline exceeded: " + executing + " connections executing, " + sending + " sending");
+            report.phase("deadline exceeded");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Завершает работу после выхода из цикла селектора: закрывает подключения, останавливает рабочие потоки
+     * и сохраняет коллекцию. Выполняется ровно один раз.
+     */
+    private void terminate() {
+        running = false;
+        synchronized (this) {
+            if (!draining) {
+                drainDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.shutdownTimeout);
+                report = new ShutdownReport();
+                draining = true;
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) ((Connection) key.attachment()).close();
+        }
+        if (datagrams != null) datagrams.close();
         try {
+            server.close();
             selector.close();
         } catch (IOException e) {
             Printer.println("Failed to close selector correctly.");
         }
+        report.phase("connections closed");
+        workers.shutdown();
+        try {
+            long remaining = Math.max(0, drainDeadline - System.nanoTime());
+            if (!workers.awaitTermination(remaining, TimeUnit.NANOSECONDS)) workers.shutdownNow();
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        report.phase("workers stopped");
+        administrator.save();
+        report.phase("collection saved");
+        Printer.println(report);
+        Printer.println(BufferPool.shared);
+        terminated.countDown();
     }
 
     private void doAccept(SelectionKey key) throws ClientAcceptingException {
         try {
             var ssc = (ServerSocketChannel) key.channel();
             var sc = ssc.accept();
+            if (sc == null) return;
             sc.configureBlocking(false);
-            sc.register(key.selector(), SelectionKey.OP_READ);
+            if (connections >= settings.maxConnections) {
+                reject(sc);
+                return;
+            }
+            SelectionKey clientKey = sc.register(key.selector(), SelectionKey.OP_READ);
+            clientKey.attach(new Connection(sc, clientKey, outboundBytes));
+            connections++;
             Printer.println("Client connected");
         } catch (IOException e) {
             throw new ClientAcceptingException("Failed to accept client: "+e.getMessage());
         }
     }
-    private void doRead(SelectionKey key) throws IOException, SerialisationException {
-        var socketChannel = (SocketChannel) key.channel();
-        request = RequestReader.readRequest(socketChannel);
-        socketChannel.register(key.selector(), SelectionKey.OP_WRITE);
+
+    /**
+     * Принимает запросы по UDP и передаёт их рабочим потокам. Датаграммы с адресов без открытого TCP-подключения
+     * отбрасываются. Запросы больших массивов и команд не из {@link DatagramEndpoint#COMMANDS} сразу
+     * перенаправляются на TCP. Если исполнения ожидают {@link ServerSettings#maxInFlight} запросов по UDP
+     * или рабочие потоки перегружены, запрос отбрасывается: клиент отправит его повторно.
+     */
+    private void receiveDatagrams() {
+        try {
+            datagrams.receive((request, address, size) -> {
+                if (draining || !hosts.containsKey(address.getAddress())) return;
+                if (request.requiresLargeArrays || !DatagramEndpoint.COMMANDS.contains(request.word)) {
+                    datagrams.reply(address, DatagramEndpoint.retry(request.id), size);
+                    return;
+                }
+                if (datagramsInFlight.incrementAndGet() > settings.maxInFlight) {
+                    datagramsInFlight.decrementAndGet();
+                    return;
+                }
+                try {
+                    workers.execute(() -> {
+                        try {
+                            Response response = ResponseForming.formResponse(request, manager);
+                            if (response.result instanceof TicketsStream) response = DatagramEndpoint.retry(request.id);
+                            datagrams.reply(address, response, size);
+                        } finally {
+                            datagramsInFlight.decrementAndGet();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    datagramsInFlight.decrementAndGet();
+                }
+            });
+        } catch (IOException e) {
+            Printer.println("Failed to receive datagram: "+e.getMessage());
+        }
+    }
+
+    /**
+     * Отклоняет подключение сверх лимита: отправляет ответ с ошибкой, если канал готов его принять, и закрывает канал
+     * @param channel канал подключения
+     */
+    private void reject(SocketChannel channel) {
+        try (channel) {
+            sendHandshake(channel, Handshake.refuse("Server is overloaded"));
+        } catch (IOException ignored) {
+        }
+        Printer.println("Client rejected: connection limit reached");
+    }
+
+    /**
+     * Выбирает формат передачи по предложению клиента и ставит ответ на рукопожатие в очередь.
+     * Если общего формата нет, клиент получает отказ и подключение закрывается.
+     * @param connection подключение
+     * @param offer предложение клиента
+     * @return принято ли подключение
+     */
+    private boolean negotiate(Connection connection, Handshake offer) {
+        Handshake answer = WireCodecs.answer(offer);
+        if (answer.isRefused()) {
+            try {
+                sendHandshake(connection.channel, answer);
+            } catch (IOException ignored) {
+            }
+            closeConnection(connection, "Client refused: "+answer.reason);
+            return false;
+        }
+        connection.negotiated(WireCodecs.get(answer.codecs[0]), answer.compression);
+        try {
+            connection.host = ((InetSocketAddress) connection.channel.getRemoteAddress()).getAddress();
+            hosts.merge(connection.host, 1, Integer::sum);
+        } catch (IOException ignored) {
+        }
+        connection.enqueue(ResponseForming.encodeHandshake(answer));
+        responded.add(connection);
+        Printer.println("Wire format: "+answer.codecs[0]+(answer.compression ? ", compression allowed" : ""));
+        return true;
     }
 
-    private void doWrite(SelectionKey key) throws ResponseSendingException {
-        var socketChannel = (SocketChannel) key.channel();
+    /**
+     * Отправляет ответ на рукопожатие, если канал готов его принять
+     * @param channel канал подключения
+     * @param answer ответ на рукопожатие
+     * @throws IOException вызывается при ошибке записи
+     */
+    private static void sendHandshake(SocketChannel channel, Handshake answer) throws IOException {
+        ByteBuffer[] blocks = ResponseForming.encodeHandshake(answer);
         try {
-            ResponseForming.sendResponse(socketChannel, response);
-            socketChannel.register(key.selector(), SelectionKey.OP_READ);
-        } catch (IOException | SerialisationException e) {
-            throw new ResponseSendingException("Failed to send response", e);
+            channel.write(blocks);
         } finally {
-            response = null;
+            ResponseForming.release(blocks);
         }
     }
 
-    public void stopServer() {
-        running = false;
-        administrator.save();
+    private void closeConnection(Connection connection, String message) {
+        if (connection.close()) {
+            connections--;
+            if (connection.host != null) hosts.computeIfPresent(connection.host, (host, count) -> count == 1 ? null : count - 1);
+            Printer.println(message);
+        }
+    }
+
+    private void doRead(Connection connection) throws IOException {
         try {
-            server.close();
-        } catch (IOException e) {
-            Printer.println("Failed to close server correctly");
+            Request request;
+            if (connection.isNegotiated()) {
+                request = connection.reader.read(connection.channel);
+            } else {
+                Handshake offer = connection.reader.readHandshake(connection.channel);
+                if (offer == null || !negotiate(connection, offer)) return;
+                request = connection.reader.poll();
+            }
+            while (request != null) {
+                connection.schedule(request);
+                request = connection.reader.poll();
+            }
+        } catch (RequestReadingException | SerialisationException e) {
+            closeConnection(connection, "Failed to read request.");
+            return;
+        }
+        dispatch(connection);
+        updateReadInterest(connection);
+    }
+
+    /**
+     * Разрешает или приостанавливает чтение из подключения. Чтение приостанавливается,
+     * если у подключения слишком много неисполненных запросов или переполнен бюджет исходящих данных.
+     * @param connection подключение
+     */
+    private void updateReadInterest(Connection connection) {
+        SelectionKey key = connection.key;
+        if (!key.isValid()) return;
+        boolean readable = !readsPaused && !draining && connection.inFlight() < settings.maxInFlight;
+        int ops = key.interestOps();
+        int updated = readable ? ops | SelectionKey.OP_READ : ops & ~SelectionKey.OP_READ;
+        if (updated != ops) key.interestOps(updated);
+    }
+
+    /**
+     * Приостанавливает чтение из всех подключений, когда неотправленные ответы превышают бюджет,
+     * и возобновляет, когда их объём падает вдвое ниже бюджета
+     */
+    private void checkOutboundBudget() {
+        long outbound = outboundBytes.get();
+        if (!readsPaused && outbound > settings.outboundBudget) {
+            readsPaused = true;
+            Printer.println("Outbound budget exceeded, reading paused");
+        } else if (readsPaused && outbound <= settings.outboundBudget / 2) {
+            readsPaused = false;
+            Printer.println("Reading resumed");
+        } else {
+            return;
+        }
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) updateReadInterest((Connection) key.attachment());
+        }
+    }
+
+    /**
+     * Закрывает подключения, которые дольше допустимого не принимают ответы
+     * @param sweepInterval минимальный интервал между проверками в миллисекундах
+     */
+    private void sweepStalled(long sweepInterval) {
+        long now = System.nanoTime();
+        if (now - lastSweep < TimeUnit.MILLISECONDS.toNanos(sweepInterval)) return;
+        lastSweep = now;
+        long timeout = TimeUnit.MILLISECONDS.toNanos(settings.writeTimeout);
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection && ((Connection) key.attachment()).isStalled(timeout, now)) {
+                closeConnection((Connection) key.attachment(), "Slow client disconnected");
+            }
+        }
+    }
+
+    /**
+     * Передаёт рабочим потокам все запросы подключения, которые можно исполнять
+     * @param connection подключение
+     */
+    private void dispatch(Connection connection) {
+        for (Request request : connection.takeRunnable(r -> manager.isMutating(r.word))) {
+            submit(connection, request);
+        }
+    }
+
+    private void submit(Connection connection, Request request) {
+        boolean mutating = manager.isMutating(request.word);
+        try {
+            workers.execute(() -> {
+                Response response = null;
+                try {
+                    response = ResponseForming.formResponse(request, manager);
+                    Printer.println("Respond formed");
+                } finally {
+                    if (response != null && response.result instanceof TicketsStream) {
+                        sendChunk(connection, request, (TicketsStream) response.result, mutating);
+                    } else {
+                        respond(connection, request, response, mutating);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            connection.complete(mutating);
+            synchronized (connection.encoding) {
+                connection.enqueue(ResponseForming.encodeError(request.id, "Server is busy", connection.responses));
+            }
+            responded.add(connection);
+        }
+    }
+
+    /**
+     * Кодирует ответ и освобождает место запроса в очереди подключения. Вызывается всегда, даже если
+     * ответ не удалось сформировать, иначе следующие запросы подключения никогда не будут запущены.
+     * @param connection подключение
+     * @param request запрос
+     * @param response ответ или null, если его не удалось сформировать
+     * @param mutating изменяет ли запрос коллекцию
+     */
+    private void respond(Connection connection, Request request, Response response, boolean mutating) {
+        synchronized (connection.encoding) {
+            try {
+                connection.enqueue(response == null
+                        ? ResponseForming.encodeError(request.id, "Command failed", connection.responses)
+                        : ResponseForming.encode(request, response, connection.responses, connection.compression));
+            } finally {
+                connection.complete(mutating);
+            }
+        }
+        notifyResponded(connection);
+    }
+
+    /**
+     * Кодирует очередную часть потокового ответа. Следующая часть готовится только после отправки текущей,
+     * поэтому в памяти находится не более одной части каждого потока.
+     * @param connection подключение
+     * @param request запрос
+     * @param stream поток билетов
+     * @param mutating изменяет ли запрос коллекцию
+     */
+    private void sendChunk(Connection connection, Request request, TicketsStream stream, boolean mutating) {
+        if (connection.isClosed()) {
+            connection.complete(mutating);
+            return;
         }
+        Response chunk = ResponseForming.nextChunk(request, stream);
+        synchronized (connection.encoding) {
+            ByteBuffer[] blocks = ResponseForming.encode(request, chunk, connection.responses, connection.compression);
+            if (ResponseForming.isLastChunk(chunk)) {
+                connection.complete(mutating);
+                connection.enqueue(blocks);
+            } else {
+                connection.enqueue(blocks, () -> continueStream(() -> sendChunk(connection, request, stream, mutating)));
+            }
+        }
+        notifyResponded(connection);
+    }
+
+    /**
+     * Передаёт подготовку следующей части рабочим потокам. Вызывается потоком селектора после отправки части,
+     * поэтому при перегрузке рабочих потоков задача откладывается, а не выполняется на месте: чтение хранилища
+     * может ждать блокировку, занятую пакетом, и остановило бы ввод-вывод всех подключений.
+     * @param task задача
+     */
+    private void continueStream(Runnable task) {
+        if (!parkedStreams.isEmpty()) {
+            parkedStreams.add(task);
+            return;
+        }
+        try {
+            workers.execute(task);
+        } catch (RejectedExecutionException e) {
+            parkedStreams.add(task);
+        }
+    }
+
+    /**
+     * Повторно передаёт рабочим потокам отложенные части потоковых ответов, пока очередь их принимает
+     */
+    private void resumeStreams() {
+        Runnable task;
+        while ((task = parkedStreams.peek()) != null) {
+            try {
+                workers.execute(task);
+            } catch (RejectedExecutionException e) {
+                return;
+            }
+            parkedStreams.poll();
+        }
+    }
+
+    private void notifyResponded(Connection connection) {
+        responded.add(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * Переводит подключения с готовыми ответами в режим записи и запускает запросы,
+     * дождавшиеся своей очереди. Вызывается только потоком селектора.
+     */
+    private void registerResponses() {
+        Connection connection;
+        while ((connection = responded.poll()) != null) {
+            if (connection.key.isValid()) {
+                connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_WRITE);
+                dispatch(connection);
+                updateReadInterest(connection);
+            }
+        }
+    }
+
+    private void doWrite(Connection connection) throws IOException {
+        if (connection.flush()) {
+            connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        synchronized (this) {
+            if (!draining) {
+                drainDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.shutdownTimeout);
+                report = new ShutdownReport();
+                draining = true;
+            }
+        }
+        if (!started) {
+            administrator.save();
+            return;
+        }
+        selector.wakeup();
+        try {
+            terminated.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void stopServer() {
+        shutdown();
         System.exit(0);
     }
 }
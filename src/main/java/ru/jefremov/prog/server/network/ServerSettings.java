@@ -0,0 +1,72 @@
+package ru.jefremov.prog.server.network;
+
+import ru.jefremov.prog.common.Printer;
+
+/**
+ * Ограничения сервера. Значения берутся из переменных окружения, при их отсутствии - значения по умолчанию.
+ */
+public class ServerSettings {
+    /**
+     * Максимальное количество одновременных подключений
+     */
+    public final int maxConnections;
+    /**
+     * Сколько запросов подключения может ожидать исполнения, прежде чем сервер перестанет читать из него
+     */
+    public final int maxInFlight;
+    /**
+     * Сколько байт ответов может ожидать отправки по всем подключениям, прежде чем сервер перестанет читать запросы
+     */
+    public final long outboundBudget;
+    /**
+     * Сколько миллисекунд подключение может не принимать ответ, прежде чем будет закрыто
+     */
+    public final long writeTimeout;
+    /**
+     * Сколько миллисекунд при остановке даётся на завершение начатых команд и отправку ответов
+     */
+    public final long shutdownTimeout;
+
+    public ServerSettings(int maxConnections, int maxInFlight, long outboundBudget, long writeTimeout, long shutdownTimeout) {
+        if (maxConnections <= 0 || maxInFlight <= 0 || outboundBudget <= 0 || writeTimeout <= 0 || shutdownTimeout <= 0) {
+            throw new IllegalArgumentException("Server limits must be positive");
+        }
+        this.maxConnections = maxConnections;
+        this.maxInFlight = maxInFlight;
+        this.outboundBudget = outboundBudget;
+        this.writeTimeout = writeTimeout;
+        this.shutdownTimeout = shutdownTimeout;
+    }
+
+    /**
+     * Читает ограничения из переменных окружения LAB5_MAX_CONNECTIONS, LAB5_MAX_IN_FLIGHT,
+     * LAB5_OUTBOUND_BUDGET, LAB5_WRITE_TIMEOUT и LAB5_SHUTDOWN_TIMEOUT
+     * @return ограничения сервера
+     */
+    public static ServerSettings fromEnvironment() {
+        return new ServerSettings(
+                (int) read("LAB5_MAX_CONNECTIONS", 1024),
+                (int) read("LAB5_MAX_IN_FLIGHT", 64),
+                read("LAB5_OUTBOUND_BUDGET", 64L * 1024 * 1024),
+                read("LAB5_WRITE_TIMEOUT", 30_000),
+                read("LAB5_SHUTDOWN_TIMEOUT", 10_000));
+    }
+
+    private static long read(String variableName, long defaultValue) {
+        String value = System.getenv(variableName);
+        if (value == null) return defaultValue;
+        try {
+            long parsed = Long.parseLong(value.trim());
+            if (parsed > 0 && parsed <= Integer.MAX_VALUE) return parsed;
+        } catch (NumberFormatException ignored) {
+        }
+        Printer.println("Incorrect value of " + variableName + ", using " + defaultValue);
+        return defaultValue;
+    }
+
+    @Override
+    public String toString() {
+        return "Limits: " + maxConnections + " connections, " + maxInFlight + " requests per connection, " +
+                outboundBudget + " outbound bytes, " + writeTimeout + " ms write timeout, " + shutdownTimeout + " ms shutdown timeout";
+    }
+}
@@ -0,0 +1,28 @@
+package ru.jefremov.prog.server.network;
+
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Замеры длительности этапов остановки сервера
+ */
+class ShutdownReport {
+    private final long start = System.nanoTime();
+    private long phaseStart = start;
+    private final StringJoiner phases = new StringJoiner(", ");
+
+    /**
+     * Отмечает завершение очередного этапа
+     * @param name название этапа
+     */
+    void phase(String name) {
+        long now = System.nanoTime();
+        phases.add(name + " in " + TimeUnit.NANOSECONDS.toMillis(now - phaseStart) + " ms");
+        phaseStart = now;
+    }
+
+    @Override
+    public String toString() {
+        return "Shutdown: " + phases + "; total " + TimeUnit.NANOSECONDS.toMillis(phaseStart - start) + " ms";
+    }
+}
@@ -0,0 +1,23 @@
+package ru.jefremov.prog.server.network;
+
+/**
+ * Сетевой транспорт сервера: принимает подключения и передаёт их запросы менеджеру команд.
+ */
+public interface Transport {
+    /**
+     * Запускает обслуживание клиентов. Возвращает управление после остановки сервера.
+     */
+    void run();
+
+    /**
+     * Плавно останавливает сервер: перестаёт принимать подключения и запросы, дожидается завершения начатых команд
+     * и отправки ответов, но не дольше заданного срока, после чего один раз сохраняет коллекцию.
+     * Повторный вызов только дожидается завершения остановки. Нельзя вызывать из потоков самого сервера.
+     */
+    void shutdown();
+
+    /**
+     * Плавно останавливает сервер и завершает программу
+     */
+    void stopServer();
+}